@@ -1,39 +1,113 @@
 package amazons;
 
-
-
-
-
-
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import static amazons.Piece.*;
-import java.util.Iterator;
 
-/** A Player that automatically generates moves.
+/** A Player that automatically generates moves.  The game-tree search
+ *  itself is done by Searchers (see Searcher), on one thread or, if
+ *  this AI was configured with more, in parallel.
  *  @author Frederick Fan
  */
 class AI extends Player {
 
     /** A position magnitude indicating a win (for white if positive, black
      *  if negative). */
-    private static final int WINNING_VALUE = Integer.MAX_VALUE - 1;
+    static final int WINNING_VALUE = Integer.MAX_VALUE - 1;
     /** A magnitude greater than a normal value. */
-    private static final int INFTY = Integer.MAX_VALUE;
+    static final int INFTY = Integer.MAX_VALUE;
+    /** Milliseconds kept in reserve below the per-move time limit. */
+    static final long TIME_MARGIN = 500;
+    /** The least number of moves assumed to remain in a game when
+     *  sharing out the time left. */
+    private static final int MIN_MOVES_LEFT = 10;
+    /** Factor by which a search may run over its share of the time left
+     *  before it is abandoned. */
+    private static final int OVERRUN = 3;
+    /** Default size of the transposition table, in megabytes. */
+    static final int DEFAULT_TABLE_SIZE = 32;
+    /** Default size of the evaluation cache, in megabytes. */
+    static final int DEFAULT_CACHE_SIZE = 8;
+    /** Limit on the positions examined in finding the fill of each
+     *  region in a settled endgame. */
+    static final int ENDGAME_NODES = 200000;
+    /** Initial half-width of the aspiration window of deepen, and the
+     *  factor by which it widens when a search falls outside it. */
+    private static final int ASPIRATION = 50, WIDENING = 4;
 
     /** A new AI with no piece or controller (intended to produce
-     *  a template). */
+     *  a template), with a transposition table of the default size,
+     *  searching on one thread per available processor. */
     AI() {
-        this(null, null);
+        this(DEFAULT_TABLE_SIZE, DEFAULT_CACHE_SIZE,
+             Runtime.getRuntime().availableProcessors(), false);
     }
 
-    /** A new AI playing PIECE under control of CONTROLLER. */
-    AI(Piece piece, Controller controller) {
+    /** A new AI template, as for AI(), whose transposition table
+     *  occupies about TABLESIZE megabytes and evaluation cache about
+     *  CACHESIZE megabytes, that searches using THREADS threads, and
+     *  that ponders (see startPondering) iff PONDER.  The AIs it
+     *  creates share the table, the cache, and the threads. */
+    AI(int tableSize, int cacheSize, int threads, boolean ponder) {
+        this(null, null, new TranspositionTable(tableSize),
+             new EvalCache(cacheSize),
+             threads > 1 ? new ForkJoinPool(threads) : null, ponder);
+    }
+
+    /** A new AI playing PIECE under control of CONTROLLER, remembering
+     *  search results in TABLE and searching in parallel on POOL, or
+     *  on the calling thread alone if POOL is null.  It has its own
+     *  evaluation cache of the default size, and does not ponder. */
+    AI(Piece piece, Controller controller, TranspositionTable table,
+       ForkJoinPool pool) {
+        this(piece, controller, table, new EvalCache(DEFAULT_CACHE_SIZE),
+             pool, false);
+    }
+
+    /** A new AI as for AI(PIECE, CONTROLLER, TABLE, POOL) that caches
+     *  static evaluations in CACHE, and ponders iff PONDER. */
+    AI(Piece piece, Controller controller, TranspositionTable table,
+       EvalCache cache, ForkJoinPool pool, boolean ponder) {
         super(piece, controller);
+        _table = table;
+        _cache = cache;
+        _pool = pool;
+        _ponder = ponder;
     }
 
     @Override
     Player create(Piece piece, Controller controller) {
-        return new AI(piece, controller);
+        AI result = new AI(piece, controller, _table, _cache, _pool, _ponder);
+        result._book = _book;
+        result._stats = _stats;
+        result.setTablebase(_tablebase);
+        return result;
+    }
+
+    /** Have me, and the AIs created from me from now on, play the moves
+     *  BOOK gives for the positions it covers instead of searching them.
+     *  BOOK may be null, for no book. */
+    void setBook(OpeningBook book) {
+        _book = book;
+    }
+
+    /** Have me, and the AIs created from me from now on, print
+     *  statistics of the search for each move (its depth, see
+     *  searchDepth, its time, and the hit rate of my evaluation cache)
+     *  on the standard error iff STATS. */
+    void setStats(boolean stats) {
+        _stats = stats;
+    }
+
+    /** Have me, and the AIs created from me from now on, take the fills
+     *  of the small regions TABLEBASE covers from it, in evaluating
+     *  positions and in playing out settled endgames.  TABLEBASE may be
+     *  null, for none.  Must be called before I first search. */
+    void setTablebase(Tablebase tablebase) {
+        _tablebase = tablebase;
+        _endgame = new Endgame(ENDGAME_NODES, tablebase);
     }
 
     @Override
@@ -44,115 +118,350 @@ class AI extends Player {
     }
 
     /** Return a move for me from the current position, assuming there
-     *  is a move. */
-    private Move findMove() {
-        Board b = new Board(board());
-        if (_myPiece == WHITE) {
-            findMove(b, maxDepth(b), true, 1, -INFTY, INFTY);
-        } else {
-            findMove(b, maxDepth(b), true, -1, -INFTY, INFTY);
-        }
-        return _lastFoundMove;
-    }
-
-    /** The move found by the last call to one of the ...FindMove methods
-     *  below. */
-    private Move _lastFoundMove;
-
-    /** Find a move from position BOARD and return its value, recording
-     *  the move found in _lastFoundMove iff SAVEMOVE. The move
-     *  should have maximal value or have value > BETA if SENSE==1,
-     *  and minimal value or value < ALPHA if SENSE==-1. Searches up to
-     *  DEPTH levels.  Searching at level 0 simply returns a static estimate
-     *  of the board value and does not set _lastMoveFound. */
-    private int findMove(Board board, int depth, boolean saveMove, int sense,
-                         int alpha, int beta) {
-        if (depth == 0 || board.winner() != null) {
-            return staticScore(board);
+     *  is a move, and charge the time taken to my controller.  A
+     *  settled endgame is played from an analysis of its regions if
+     *  that is exact by the soft deadline, and searched like any other
+     *  position if not.  If I ponder, start pondering on the reply I
+     *  expect. */
+    Move findMove() {
+        long start = System.currentTimeMillis();
+        Board b = Board.scratchCopy(board());
+        int move = finishPondering(b, start);
+        if (move < 0) {
+            move = bookMove(b);
         }
-        int bestSoFar = 0;
-        Move foundMove = null;
-        Iterator<Move> iteratorMove = board.legalMoves();
-
-
-        if (sense == 1) {
-            bestSoFar = -INFTY;
-            while (iteratorMove.hasNext()) {
-
-                foundMove = iteratorMove.next();
-                board.makeMove(foundMove);
-                int response = findMove(board, depth - 1,
-                        false, -sense, alpha, beta);
-                if (response >= bestSoFar) {
-                    bestSoFar = response;
-                    alpha = Math.max(alpha, response);
-                    if (beta <= alpha) {
-                        board.undo();
-                        break;
-                    }
-                }
-                board.undo();
+        if (move < 0 && Endgame.isSettled(b)) {
+            setDeadlines(b, start);
+            _completedDepth = 0;
+            move = _endgame.bestMove(b, _softDeadline);
+            if (!_endgame.isExact()) {
+                move = -1;
             }
         }
+        if (move < 0) {
+            setDeadlines(b, start);
+            move = deepen(b, _myPiece == WHITE ? 1 : -1);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        _controller.chargeTime(elapsed);
+        _searchDepth = _completedDepth;
+        if (_stats) {
+            System.err.printf("%s: depth %d, %d ms,"
+                              + " eval cache hit rate %.1f%%%n",
+                              _myPiece.toName(), searchDepth(), elapsed,
+                              100 * _cache.hitRate());
+        }
+        if (_ponder) {
+            startPondering(b, move);
+        }
+        return Move.mv(b.size(), move);
+    }
+
+    /** Return the move my book gives for BOARD, or -1 if I have no
+     *  book, BOARD is not in it, or its move is not legal (as when two
+     *  positions share a hash). */
+    private int bookMove(Board board) {
+        if (_book == null) {
+            return -1;
+        }
+        int move = _book.move(board.hash());
+        if (move < 0 || !board.isLegal(Move.mv(board.size(), move))) {
+            return -1;
+        }
+        _completedDepth = 0;
+        return move;
+    }
+
+    /** Start searching, on a thread of its own, the position that
+     *  follows my move MOVE on BOARD and the reply the transposition
+     *  table expects, so that the time the opponent spends choosing its
+     *  move is not wasted.  Does nothing if the reply is unknown or the
+     *  game would be over.  The search runs until stopped by
+     *  finishPondering or stopPondering, or for at most the time allowed
+     *  for one move.  BOARD is not changed. */
+    private void startPondering(Board board, int move) {
+        Board position = new Board(board);
+        position.makeMove(move);
+        int reply = TranspositionTable.move(_table.probe(position.hash()));
+        if (position.winner() != null || reply < 0
+            || !position.isLegal(Move.mv(position.size(), reply))) {
+            return;
+        }
+        position.makeMove(reply);
+        if (position.winner() != null || Endgame.isSettled(position)) {
+            return;
+        }
+        _ponderHash = position.hash();
+        _softDeadline = _hardDeadline =
+            System.currentTimeMillis() + _controller.moveTimeLimit();
+        _ponderThread = new Thread(() -> {
+            _ponderResult = deepen(position, _myPiece == WHITE ? 1 : -1);
+        });
+        _ponderThread.setDaemon(true);
+        _ponderThread.start();
+    }
+
+    /** Stop any pondering, given that BOARD is the position in which I
+     *  am to move and that my search for a move started at time START.
+     *  If the pondering was on BOARD's position, let it go on until the
+     *  deadlines set by setDeadlines, and return the best move it found.
+     *  Otherwise, abandon it, and return -1. */
+    int finishPondering(Board board, long start) {
+        if (_ponderThread == null || board.hash() != _ponderHash) {
+            stopPondering();
+            return -1;
+        }
+        setDeadlines(board, start);
+        joinPondering();
+        return _ponderResult;
+    }
 
-        if (sense == -1) {
-            bestSoFar = INFTY;
-            while (iteratorMove.hasNext()) {
-
-                foundMove = iteratorMove.next();
-                board.makeMove(foundMove);
-                int response = findMove(board, depth - 1,
-                        false, -sense, alpha, beta);
-                if (response <= bestSoFar) {
-                    bestSoFar = response;
-                    beta = Math.min(beta, response);
-                    if (beta <= alpha) {
-                        board.undo();
-                        break;
-                    }
+    @Override
+    void stopPondering() {
+        if (_ponderThread != null) {
+            _softDeadline = _hardDeadline = 0;
+            joinPondering();
+        }
+    }
+
+    /** Return true iff I am pondering. */
+    boolean isPondering() {
+        return _ponderThread != null;
+    }
+
+    /** Wait for the pondering thread to end. */
+    private void joinPondering() {
+        try {
+            _ponderThread.join();
+        } catch (InterruptedException excp) {
+            throw new Error("unexpected interrupt");
+        }
+        _ponderThread = null;
+    }
+
+    /** Return the best move on BOARD for the side whose sense (see
+     *  Searcher.findMove) is SENSE, found by iterative deepening:
+     *  searches of depth 1, 2, ... up to maxDepth(BOARD), each trying
+     *  the best move of the one before first.  No new search starts
+     *  after the soft deadline, and a search still running at the hard
+     *  deadline is abandoned, so that the result is always the best move
+     *  of the deepest completed search.
+     *
+     *  Each search after the first starts with an aspiration window of
+     *  ASPIRATION either side of the value of the one before, which
+     *  makes for more cutoffs.  A value outside the window is only a
+     *  bound, so the search is then repeated with the window widened on
+     *  that side, by a factor of WIDENING each time. */
+    private int deepen(Board board, int sense) {
+        int best = -1, value = 0;
+        _previousBest = -1;
+        _completedDepth = 0;
+        Searcher root = acquireSearcher();
+        for (int depth = 1; depth <= maxDepth(board); depth += 1) {
+            _aborted = false;
+            long delta = ASPIRATION;
+            int alpha = depth == 1 ? -INFTY : window(value, -delta),
+                beta = depth == 1 ? INFTY : window(value, delta);
+            while (true) {
+                value = search(root, board, depth, sense, alpha, beta);
+                if (_aborted || value > alpha && value < beta) {
+                    break;
+                }
+                delta *= WIDENING;
+                if (value <= alpha) {
+                    alpha = window(value, -delta);
+                } else {
+                    beta = window(value, delta);
                 }
-                board.undo();
+            }
+            if (_aborted) {
+                break;
+            }
+            best = _previousBest = root.lastFoundMove();
+            _completedDepth = depth;
+            if (Math.abs(value) == WINNING_VALUE
+                || System.currentTimeMillis() >= _softDeadline) {
+                break;
             }
         }
+        releaseSearcher(root);
+        return best;
+    }
 
-        if (saveMove) {
-            _lastFoundMove = foundMove;
+    /** Return the value of BOARD for the side to move, found by a search
+     *  by ROOT to DEPTH with no time limit (in my pool, if I have one),
+     *  after which ROOT.lastFoundMove() is the best move.  For analysis
+     *  away from the game, such as by BookBuilder. */
+    int searchToDepth(Searcher root, Board board, int depth) {
+        _previousBest = -1;
+        _aborted = false;
+        int sense = board.turn() == WHITE ? 1 : -1;
+        return sense * search(root, board, depth, sense, -INFTY, INFTY);
+    }
+
+    /** Return VALUE + DELTA, limited to the range -INFTY .. INFTY. */
+    private static int window(int value, long delta) {
+        return (int) Math.max(-INFTY, Math.min(INFTY, value + delta));
+    }
+
+    /** Return the value of a search by ROOT of BOARD to DEPTH for the
+     *  side with sense SENSE in the window ALPHA..BETA, run inside my
+     *  pool if I have one. */
+    private int search(Searcher root, Board board, int depth, int sense,
+                       int alpha, int beta) {
+        int hint = _previousBest;
+        if (_pool == null) {
+            return root.search(board, depth, sense, hint, alpha, beta);
         }
-        return bestSoFar;
+        return _pool.invoke(ForkJoinTask.adapt(
+            () -> root.search(board, depth, sense, hint, alpha, beta)));
+    }
 
+    /** Set _softDeadline and _hardDeadline for a move on BOARD whose
+     *  search starts at time START (in milliseconds).  The soft budget
+     *  is the timeShare of the move; the hard budget allows some
+     *  overrun of that share, but never exceeds the per-move limit or
+     *  half the game time left. */
+    void setDeadlines(Board board, long start) {
+        long left = _controller.gameTimeLeft();
+        long moveLimit = _controller.moveTimeLimit() - TIME_MARGIN;
+        long share = timeShare(_controller, board);
+        long hard = Math.min(Math.min(OVERRUN * share, moveLimit), left / 2);
+        _softDeadline = start + share;
+        _hardDeadline = start + Math.max(hard, share);
     }
 
-    /** Return a heuristically determined maximum search depth
-     *  based on characteristics of BOARD. */
-    private int maxDepth(Board board) {
-        int N = board.numMoves();
-        return 1;
-    }
-
-
-    /** Return a heuristic value for BOARD. */
-    private int staticScore(Board board) {
-        Piece winner = board.winner();
-        if (winner == BLACK) {
-            return -WINNING_VALUE;
-        } else if (winner == WHITE) {
-            return WINNING_VALUE;
-        } else {
-            int numBmoves = 0;
-            int numWmoves = 0;
-
-            Iterator<Move> legalWhite = board.legalMoves(WHITE);
-            Iterator<Move> legalBlack = board.legalMoves(BLACK);
-            while (legalWhite.hasNext()) {
-                numWmoves += 1;
-                legalWhite.next();
-            }
-            while (legalBlack.hasNext()) {
-                numBmoves += 1;
+    /** Return the milliseconds an automated player of a game controlled
+     *  by CONTROLLER should normally spend on a move on BOARD: an even
+     *  share of the game time left among the moves that may remain (at
+     *  most one per empty square for each side), but no more than the
+     *  per-move limit allows. */
+    static long timeShare(Controller controller, Board board) {
+        long moveLimit = controller.moveTimeLimit() - TIME_MARGIN;
+        int movesLeft = Math.max(MIN_MOVES_LEFT, board.emptySquares() / 2);
+        return Math.min(controller.gameTimeLeft() / movesLeft, moveLimit);
+    }
 
-                legalBlack.next();
-            }
-            return numWmoves - numBmoves;
+    /** Abandon the current search if the hard deadline has passed.
+     *  Searches of depth 1 are never abandoned, so that there is always
+     *  a move to make.  This relies on a search of depth 1, which
+     *  evaluates each legal move once, taking well under TIME_MARGIN
+     *  (about 0.15 s on a 16x16 board, 0.3 s before the JIT has
+     *  compiled it), so that it stays within the per-move limit even
+     *  when it runs past the hard deadline. */
+    void checkClock() {
+        if (_previousBest >= 0
+            && System.currentTimeMillis() >= _hardDeadline) {
+            _aborted = true;
         }
     }
+
+    /** Return the time (from System.currentTimeMillis) after which no
+     *  new search iteration starts. */
+    long softDeadline() {
+        return _softDeadline;
+    }
+
+    /** Return the time at which a running search is abandoned. */
+    long hardDeadline() {
+        return _hardDeadline;
+    }
+
+    /** Return true iff the current search has been abandoned. */
+    boolean isAborted() {
+        return _aborted;
+    }
+
+    /** Return the depth of the deepest search completed for my last
+     *  move, or 0 if it needed no search. */
+    int searchDepth() {
+        return _searchDepth;
+    }
+
+    /** Return true iff my searches run in parallel. */
+    boolean isParallel() {
+        return _pool != null;
+    }
+
+    /** Return my transposition table. */
+    TranspositionTable table() {
+        return _table;
+    }
+
+    /** Return my evaluation cache. */
+    EvalCache evalCache() {
+        return _cache;
+    }
+
+    /** Return my tablebase, or null if I have none. */
+    Tablebase tablebase() {
+        return _tablebase;
+    }
+
+    /** Return an idle Searcher for my use, creating one if need be.  Any
+     *  thread may call this. */
+    Searcher acquireSearcher() {
+        Searcher result = _searchers.poll();
+        return result == null ? new Searcher(this) : result;
+    }
+
+    /** Return SEARCHER, obtained from acquireSearcher, to the idle
+     *  Searchers. */
+    void releaseSearcher(Searcher searcher) {
+        _searchers.add(searcher);
+    }
+
+    /** Times (from System.currentTimeMillis) after which no new search
+     *  iteration starts, and at which a running one is abandoned. */
+    private volatile long _softDeadline, _hardDeadline;
+    /** True iff the current search iteration was abandoned. */
+    private volatile boolean _aborted;
+    /** The best move of the last completed iteration of deepen, or -1
+     *  during the first. */
+    private volatile int _previousBest = -1;
+    /** The depth of the last iteration completed by deepen. */
+    private int _completedDepth;
+    /** The value of searchDepth(). */
+    private int _searchDepth;
+
+    /** True iff I search on my opponent's time (see startPondering). */
+    private final boolean _ponder;
+    /** The thread searching while my opponent chooses a move, or null
+     *  if none. */
+    private Thread _ponderThread;
+    /** Hash of the position being searched by _ponderThread. */
+    private long _ponderHash;
+    /** The best move found by _ponderThread, once it has finished. */
+    private int _ponderResult;
+
+    /** Analyzer for positions whose regions are all settled, where the
+     *  rest of the game needs no search. */
+    private Endgame _endgame = new Endgame(ENDGAME_NODES);
+    /** Exact fills of small regions, shared like _table, or null if
+     *  none. */
+    private Tablebase _tablebase;
+
+    /** Search results shared by this AI and the others created from the
+     *  same template. */
+    private final TranspositionTable _table;
+    /** Static evaluations, shared like _table. */
+    private final EvalCache _cache;
+    /** Book of opening moves, shared like _table, or null if none. */
+    private OpeningBook _book;
+    /** True iff I print statistics of my searches (see setStats). */
+    private boolean _stats;
+    /** Threads for parallel search, shared like _table, or null if the
+     *  search uses only the calling thread. */
+    private final ForkJoinPool _pool;
+    /** Idle Searchers, kept for reuse so that their buffers are
+     *  allocated only once. */
+    private final ConcurrentLinkedQueue<Searcher> _searchers =
+        new ConcurrentLinkedQueue<>();
+
+    /** Return a heuristically determined maximum search depth
+     *  based on characteristics of BOARD.  No game lasts longer than
+     *  there are empty squares, since each move fills one. */
+    private int maxDepth(Board board) {
+        return Math.max(1, board.emptySquares());
+    }
 }
@@ -0,0 +1,69 @@
+package amazons;
+
+/** Operations on bitboards: sets of square indices packed into arrays
+ *  of longs, with index I held in bit I % 64 of word I / 64.
+ *  @author Frederick Fan
+ */
+final class Bits {
+
+    /** Not instantiable. */
+    private Bits() {
+    }
+
+    /** Return the number of longs needed to hold a set of N bits. */
+    static int words(int n) {
+        return (n + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    /** Return true iff I is in BITS. */
+    static boolean get(long[] bits, int i) {
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /** Add I to BITS. */
+    static void set(long[] bits, int i) {
+        bits[i >>> 6] |= 1L << i;
+    }
+
+    /** Remove I from BITS. */
+    static void clear(long[] bits, int i) {
+        bits[i >>> 6] &= ~(1L << i);
+    }
+
+    /** Remove every index from BITS. */
+    static void clearAll(long[] bits) {
+        for (int k = 0; k < bits.length; k += 1) {
+            bits[k] = 0;
+        }
+    }
+
+    /** Return the number of indices in BITS. */
+    static int count(long[] bits) {
+        int n = 0;
+        for (long w : bits) {
+            n += Long.bitCount(w);
+        }
+        return n;
+    }
+
+    /** Return the smallest index >= I in BITS, or -1 if there is
+     *  none. */
+    static int next(long[] bits, int i) {
+        int k = i >>> 6;
+        if (k >= bits.length) {
+            return -1;
+        }
+        long w = bits[k] & (-1L << i);
+        while (true) {
+            if (w != 0) {
+                return (k << 6) + Long.numberOfTrailingZeros(w);
+            }
+            k += 1;
+            if (k == bits.length) {
+                return -1;
+            }
+            w = bits[k];
+        }
+    }
+
+}
@@ -1,8 +1,7 @@
 package amazons;
 
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Formatter;
 
@@ -14,62 +13,142 @@ import static amazons.Piece.*;
  */
 class Board {
 
-    /** The number of squares on a side of the board. */
+    /** The number of squares on a side of the standard board. */
     static final int SIZE = 10;
 
     /** Initializes a game board with SIZE squares on a side in the
      *  initial position. */
     Board() {
+        this(SIZE);
+    }
+
+    /** Initializes a game board with SIZE squares on a side in the
+     *  initial position, where Square.MIN_SIZE <= SIZE <=
+     *  Square.MAX_SIZE. */
+    Board(int size) {
+        allocate(Geometry.forSize(size));
         init();
     }
 
-    /** Initializes a copy of MODEL. */
+    /** Initializes a copy of MODEL.  The copy shares MODEL's move
+     *  history (its undo journal) until either board next makes a move,
+     *  so snapshots cost only the copying of the bitboards. */
     Board(Board model) {
-        copy(model);
+        allocate(model._geometry);
+        copyPosition(model);
+        _journal = model._journal;
+        _journalHash = model._journalHash;
+        _numMoves = model._numMoves;
+        _journalShared = model._journalShared = true;
     }
 
-    /** Copies MODEL into me. */
+    /** Copies MODEL into me, reusing my storage.  Unless my move history
+     *  is shared with another board or MODEL has a different size, this
+     *  allocates nothing, so a scratch board can be reset from another
+     *  board as often as needed. */
     void copy(Board model) {
-        this.init();
-        for (int i = 0; i < SIZE; i++) {
-            for (int j = 0; j < SIZE; j++) {
-                piecesSetup[i][j] = model.piecesSetup[i][j];
-            }
+        if (model._geometry != _geometry) {
+            allocate(model._geometry);
         }
-        for (int i = 0; i < arrayMoves.size(); i++) {
-            arrayMoves.add(model.arrayMoves.get(i));
+        copyPosition(model);
+        if (_journalShared) {
+            _journal = new int[_journal.length];
+            _journalHash = new long[_journalHash.length];
+            _journalShared = false;
         }
-        this._turn = model._turn;
-        this._winner = model._winner;
-        this._moves = model._moves;
-        this.arrayMoves = model.arrayMoves;
+        System.arraycopy(model._journal, 0, _journal, 0, model._numMoves);
+        System.arraycopy(model._journalHash, 0, _journalHash, 0,
+                         model._numMoves);
+        _numMoves = model._numMoves;
+    }
+
+    /** Return this thread's scratch board, after setting it to a copy of
+     *  MODEL.  Each thread has one scratch board, created on first use
+     *  and reused by later calls from that thread, so that search
+     *  workers can get a private copy of a position without allocating.
+     *  The result is only valid until the thread's next call. */
+    static Board scratchCopy(Board model) {
+        Board result = SCRATCH.get();
+        result.copy(model);
+        return result;
+    }
+
+    /** Copies the position of MODEL (everything but the move history)
+     *  into my existing storage, which must be for MODEL's size. */
+    private void copyPosition(Board model) {
+        System.arraycopy(model._whiteBits, 0, _whiteBits, 0, _words);
+        System.arraycopy(model._blackBits, 0, _blackBits, 0, _words);
+        System.arraycopy(model._spearBits, 0, _spearBits, 0, _words);
+        System.arraycopy(model._occupied, 0, _occupied, 0, _words);
+        System.arraycopy(model._lineOccupied, 0, _lineOccupied, 0,
+                         _lineOccupied.length);
+        _turn = model._turn;
+        _hash = model._hash;
+        _winner = model._winner;
+        _pendingFrom = model._pendingFrom;
+        _pendingTo = model._pendingTo;
+        _pendingHash = model._pendingHash;
+        _pendingWinner = model._pendingWinner;
+        _regions.copy(model._regions);
+    }
+
+    /** Make GEOMETRY my geometry, and allocate position storage and an
+     *  unshared move history for its size. */
+    private void allocate(Geometry geometry) {
+        _geometry = geometry;
+        _size = geometry.size();
+        _words = geometry.words();
+        _lines = geometry.lines();
+        _whiteBits = new long[_words];
+        _blackBits = new long[_words];
+        _spearBits = new long[_words];
+        _occupied = new long[_words];
+        _lineOccupied = new int[_lines.count()];
+        _regions = new Regions(geometry);
+        _journal = new int[_size * _size];
+        _journalHash = new long[_size * _size];
+        _journalShared = false;
+        _toSquares = new int[geometry.maxReach()];
+        _spearSquares = new int[geometry.maxReach()];
     }
 
     /** Clears the board to the initial position. */
     void init() {
-        piecesSetup = new Piece[SIZE][SIZE];
-        for (int i = 0; i < SIZE; i++) {
-            for (int j = 0; j < SIZE; j++) {
-                if ((i == 0 & j == 3)
-                        || (i == 0 & j == 6)) {
-                    piecesSetup[i][j] = WHITE;
-                } else if ((i == 3 & j == 0)
-                        || (i == 3 & j == 9)) {
-                    piecesSetup[i][j] = WHITE;
-                } else if ((i == 6 & j == 0)
-                        || (i == 6 & j == 9)) {
-                    piecesSetup[i][j] = BLACK;
-                } else if ((i == 9 & j == 3)
-                        || (i == 9 & j == 6)) {
-                    piecesSetup[i][j] = BLACK;
-                } else {
-                    piecesSetup[i][j] = EMPTY;
-                }
-            }
+        Bits.clearAll(_whiteBits);
+        Bits.clearAll(_blackBits);
+        Bits.clearAll(_spearBits);
+        Bits.clearAll(_occupied);
+        Arrays.fill(_lineOccupied, 0);
+        _hash = 0;
+        for (int k : _geometry.initialQueens(WHITE)) {
+            Bits.set(_whiteBits, k);
+            occupy(k);
+            _hash ^= _geometry.zobrist(WHITE, k);
+        }
+        for (int k : _geometry.initialQueens(BLACK)) {
+            Bits.set(_blackBits, k);
+            occupy(k);
+            _hash ^= _geometry.zobrist(BLACK, k);
         }
         _turn = WHITE;
-        _winner = EMPTY;
-        arrayMoves = new ArrayList<Move>();
+        _winner = null;
+        _pendingFrom = _pendingTo = -1;
+        _regions.invalidate();
+        _numMoves = 0;
+    }
+
+    /** Clears the board to the initial position on a board with SIZE
+     *  squares on a side. */
+    void init(int size) {
+        if (size != _size) {
+            allocate(Geometry.forSize(size));
+        }
+        init();
+    }
+
+    /** Return the number of squares on a side of this board. */
+    int size() {
+        return _size;
     }
 
     /** Return the Piece whose move it is (WHITE or BLACK). */
@@ -77,19 +156,64 @@ class Board {
         return _turn;
     }
 
+    /** Make SIDE the side to move, without otherwise changing the
+     *  position.  Intended for setting up positions (with put). */
+    void setTurn(Piece side) {
+        if (side != _turn) {
+            _turn = side;
+            _hash ^= _geometry.zobristBlackToMove();
+        }
+        updateWinner();
+    }
+
+    /** Return a 64-bit Zobrist hash of the current position and side to
+     *  move.  Equal positions always have equal hashes, and the hash is
+     *  maintained incrementally by put, makeMove, and undo. */
+    long hash() {
+        return _hash;
+    }
+
     /** Return the number of moves (that have not been undone) for this
      *  board. */
     int numMoves() {
-        return arrayMoves.size(); }
+        return _numMoves;
+    }
 
 
+    /** Return the last move made on this board (and not undone), packed
+     *  as by Move.code, or -1 if there is none. */
+    int lastMove() {
+        return _numMoves == 0 ? -1
+            : _journal[_numMoves - 1] & (1 << WINNER_SHIFT) - 1;
+    }
+
     /** Return the winner in the current position, or null if the game is
      *  not yet finished. */
     Piece winner() {
-        if (!legalMoves(_turn).hasNext()) {
-            return _turn.opponent();
+        return _winner;
+    }
+
+    /** Recompute _winner for the current position.  The side to move
+     *  has lost exactly when none of its queens has an empty adjacent
+     *  square: a queen that can step to a neighbor can always throw its
+     *  spear back to the square it left. */
+    private void updateWinner() {
+        _winner = hasMove(_turn) ? null : _turn.opponent();
+    }
+
+    /** Return true iff SIDE has at least one legal move. */
+    private boolean hasMove(Piece side) {
+        long[] queens = bits(side);
+        for (int q = Bits.next(queens, 0); q >= 0;
+             q = Bits.next(queens, q + 1)) {
+            long[] adjacent = _geometry.adjacent(q);
+            for (int k = 0; k < _words; k += 1) {
+                if ((adjacent[k] & ~_occupied[k]) != 0) {
+                    return true;
+                }
+            }
         }
-        return null;
+        return false;
     }
 
 
@@ -99,9 +223,78 @@ class Board {
     }
 
     /** Return the contents of the square at (COL, ROW), where
-     *  0 <= COL, ROW <= 9. */
+     *  0 <= COL, ROW < size(). */
     final Piece get(int col, int row) {
-        return piecesSetup[row][col];
+        return get(row * _size + col);
+    }
+
+    /** Return the contents of the square with index INDEX. */
+    Piece get(int index) {
+        if (!Bits.get(_occupied, index)) {
+            return EMPTY;
+        } else if (Bits.get(_spearBits, index)) {
+            return SPEAR;
+        } else if (Bits.get(_whiteBits, index)) {
+            return WHITE;
+        } else {
+            return BLACK;
+        }
+    }
+
+    /** Return the index on this board of the square at S's position. */
+    private int index(Square s) {
+        return s.row() * _size + s.col();
+    }
+
+    /** Return the bitboard holding the squares occupied by P, which
+     *  must be WHITE, BLACK, or SPEAR. */
+    private long[] bits(Piece p) {
+        switch (p) {
+        case WHITE:
+            return _whiteBits;
+        case BLACK:
+            return _blackBits;
+        default:
+            return _spearBits;
+        }
+    }
+
+    /** Return true iff the square with index INDEX is empty. */
+    private boolean isEmpty(int index) {
+        return !Bits.get(_occupied, index);
+    }
+
+    /** Mark the square with index INDEX as occupied in _occupied and
+     *  in the occupancy masks of the four lines through it. */
+    private void occupy(int index) {
+        Bits.set(_occupied, index);
+        for (int t = 0; t < Lines.TYPES; t += 1) {
+            int line = _lines.line(index, t);
+            _lineOccupied[line] |= 1 << _lines.pos(index, t);
+        }
+    }
+
+    /** Mark the square with index INDEX as empty in _occupied and in
+     *  the occupancy masks of the four lines through it. */
+    private void vacate(int index) {
+        Bits.clear(_occupied, index);
+        for (int t = 0; t < Lines.TYPES; t += 1) {
+            int line = _lines.line(index, t);
+            _lineOccupied[line] &= ~(1 << _lines.pos(index, t));
+        }
+    }
+
+    /** Return the set of positions along the line of type TYPE through
+     *  the square with index FROM that a queen on FROM could reach,
+     *  treating the square with index ASEMPTY (if not -1) as empty.
+     *  See Lines for how positions are numbered. */
+    private int lineReach(int from, int asEmpty, int type) {
+        int line = _lines.line(from, type);
+        int occ = _lineOccupied[line];
+        if (asEmpty >= 0 && _lines.line(asEmpty, type) == line) {
+            occ &= ~(1 << _lines.pos(asEmpty, type));
+        }
+        return _lines.reach(line, _lines.pos(from, type), occ);
     }
 
     /** Return the contents of the square at COL ROW. */
@@ -116,9 +309,25 @@ class Board {
 
     /** Set square (COL, ROW) to P. */
     final void put(Piece p, int col, int row) {
-
-        piecesSetup[row][col] = p;
-        _winner = this.winner();
+        int index = row * _size + col;
+        Piece old = get(index);
+        if (old != EMPTY) {
+            _hash ^= _geometry.zobrist(old, index);
+        }
+        if (p != EMPTY) {
+            _hash ^= _geometry.zobrist(p, index);
+        }
+        Bits.clear(_whiteBits, index);
+        Bits.clear(_blackBits, index);
+        Bits.clear(_spearBits, index);
+        if (p == EMPTY) {
+            vacate(index);
+        } else {
+            Bits.set(bits(p), index);
+            occupy(index);
+        }
+        _regions.invalidate();
+        updateWinner();
     }
 
     /** Set square COL ROW to P. */
@@ -134,33 +343,22 @@ class Board {
     boolean isUnblockedMove(Square from, Square to, Square asEmpty) {
         if (to == null || !from.isQueenMove(to)) {
             return false;
-        } else {
-            int[][] dir = Square.dir();
-            int moveCol = dir[from.direction(to)][0];
-            int moveRow = dir[from.direction(to)][1];
-            int currRow = from.row() + moveRow;
-            int currCol = from.col() + moveCol;
-            while (currRow != to.row()
-                    || currCol != to.col()) {
-                if (get(currCol, currRow).equals(EMPTY)
-                        || Square.sq(currCol, currRow).equals(asEmpty)) {
-                    currRow += moveRow;
-                    currCol += moveCol;
-                } else {
-                    return false;
-                }
+        }
+        int f = index(from), t = index(to);
+        int asEmptyIndex = asEmpty == null ? -1 : index(asEmpty);
+        for (int type = 0; type < Lines.TYPES; type += 1) {
+            if (_lines.line(f, type) == _lines.line(t, type)) {
+                int reach = lineReach(f, asEmptyIndex, type);
+                return (reach & (1 << _lines.pos(t, type))) != 0;
             }
-
-            return (get(currCol, currRow).equals(EMPTY)
-                    || Square.sq(currCol, currRow).equals(asEmpty));
         }
-
+        return false;
     }
 
     /** Return true iff FROM is a valid starting square for a move. */
     boolean isLegal(Square from) {
-        return !(get(from).equals(EMPTY) || get(from).equals(SPEAR));
-
+        int k = index(from);
+        return Bits.get(_whiteBits, k) || Bits.get(_blackBits, k);
     }
 
     /** Return true iff FROM-TO is a valid first part of move, ignoring
@@ -207,15 +405,7 @@ class Board {
 
     /** Move FROM-TO(SPEAR), assuming this is a legal move. */
     void makeMove(Square from, Square to, Square spear) {
-        Move newMove = Move.mv(from, to, spear);
-        arrayMoves.add(newMove);
-        put(get(from), to);
-        put(EMPTY, from);
-        put(SPEAR, spear);
-        _turn = _turn.opponent();
-        if (!legalMoves(_turn).hasNext()) {
-            _winner = _turn.opponent();
-        }
+        makeMove(Move.code(index(from), index(to), index(spear)));
     }
 
     /** Move according to MOVE, assuming it is a legal move. */
@@ -223,14 +413,117 @@ class Board {
         makeMove(move.from(), move.to(), move.spear());
     }
 
-    /** Undo one move.  Has no effect on the initial board. */
+    /** Move according to the packed move MOVE (see Move.code),
+     *  assuming it is a legal move. */
+    void makeMove(int move) {
+        makeQueenMove(Move.codeFrom(move), Move.codeTo(move));
+        throwSpear(Move.codeSpear(move));
+    }
+
+    /** Make the first half of a move: move the queen of the side to move
+     *  on the square with index FROM to the one with index TO, assuming
+     *  that is an unblocked queen move.  The move stays pending, with
+     *  the same side to move and winner(), until throwSpear completes
+     *  it or undoQueenMove takes it back.  The search uses this to treat
+     *  the queen move and the spear throw as separate plies. */
+    void makeQueenMove(int from, int to) {
+        assert _pendingFrom < 0;
+        _pendingFrom = from;
+        _pendingTo = to;
+        _pendingHash = _hash;
+        _pendingWinner = _winner;
+        long[] queens = bits(_turn);
+        _hash ^= _geometry.zobrist(_turn, from) ^ _geometry.zobrist(_turn, to);
+        Bits.clear(queens, from);
+        vacate(from);
+        Bits.set(queens, to);
+        occupy(to);
+    }
+
+    /** Complete the pending move started by makeQueenMove by throwing a
+     *  spear to the square with index SPEAR, which must be reachable from
+     *  the queen's new square.  Records the whole move in the journal,
+     *  so that undo takes it back as a unit. */
+    void throwSpear(int spear) {
+        assert _pendingFrom >= 0;
+        if (_journalShared) {
+            _journal = Arrays.copyOf(_journal, _journal.length);
+            _journalHash = Arrays.copyOf(_journalHash, _journalHash.length);
+            _journalShared = false;
+        }
+        _journal[_numMoves] = Move.code(_pendingFrom, _pendingTo, spear)
+            | (_pendingWinner == null ? 0 : _pendingWinner.ordinal())
+              << WINNER_SHIFT;
+        _journalHash[_numMoves] = _pendingHash;
+        _numMoves += 1;
+        _hash ^= _geometry.zobrist(SPEAR, spear)
+            ^ _geometry.zobristBlackToMove();
+        Bits.set(_spearBits, spear);
+        occupy(spear);
+        _regions.addSpear(spear, _whiteBits, _blackBits);
+        _pendingFrom = _pendingTo = -1;
+        _turn = _turn.opponent();
+        updateWinner();
+    }
+
+    /** Take back the spear of the last move, leaving its queen move
+     *  pending as if just made by makeQueenMove.  There must be a move
+     *  to take back, and no move may already be pending. */
+    void undoSpear() {
+        assert _pendingFrom < 0 && _numMoves > 0;
+        _numMoves -= 1;
+        int entry = _journal[_numMoves];
+        int spear = Move.codeSpear(entry);
+        _turn = _turn.opponent();
+        Bits.clear(_spearBits, spear);
+        vacate(spear);
+        _regions.removeSpear(spear);
+        _pendingFrom = Move.codeFrom(entry);
+        _pendingTo = Move.codeTo(entry);
+        _pendingHash = _journalHash[_numMoves];
+        _pendingWinner = PIECES[entry >>> WINNER_SHIFT];
+        _hash = _pendingHash ^ _geometry.zobrist(_turn, _pendingFrom)
+            ^ _geometry.zobrist(_turn, _pendingTo);
+        _winner = _pendingWinner;
+    }
+
+    /** Take back the pending queen move made by makeQueenMove (or left
+     *  pending by undoSpear). */
+    void undoQueenMove() {
+        assert _pendingFrom >= 0;
+        long[] queens = bits(_turn);
+        Bits.clear(queens, _pendingTo);
+        vacate(_pendingTo);
+        Bits.set(queens, _pendingFrom);
+        occupy(_pendingFrom);
+        _hash = _pendingHash;
+        _winner = _pendingWinner;
+        _pendingFrom = _pendingTo = -1;
+    }
+
+    /** Undo one move.  Has no effect on the initial board.  Everything
+     *  the move changed is restored from the journal, so this takes
+     *  constant time and recomputes nothing. */
     void undo() {
-        Move removedOne = arrayMoves.get(arrayMoves.size() - 1);
-        put(EMPTY, removedOne.spear());
-        put(get(removedOne.to()), removedOne.from());
-        put(EMPTY, removedOne.to());
+        if (_numMoves == 0) {
+            return;
+        }
+        _numMoves -= 1;
+        int entry = _journal[_numMoves];
+        int from = Move.codeFrom(entry),
+            to = Move.codeTo(entry),
+            spear = Move.codeSpear(entry);
         _turn = _turn.opponent();
-        arrayMoves.remove(arrayMoves.size() - 1);
+        Bits.clear(_spearBits, spear);
+        vacate(spear);
+        _regions.removeSpear(spear);
+        long[] queens = bits(_turn);
+        Bits.clear(queens, to);
+        vacate(to);
+        Bits.set(queens, from);
+        occupy(from);
+        _hash = _journalHash[_numMoves];
+        _winner = PIECES[entry >>> WINNER_SHIFT];
     }
 
     /** Return an Iterator over the Squares that are reachable by an
@@ -255,59 +548,297 @@ class Board {
         return new LegalMoveIterator(side);
     }
 
+    /** Store all legal moves for SIDE (regardless of whose turn it is)
+     *  into MOVES in packed form (see Move.code), and return how many
+     *  there are.  MOVES must have room for at least maxMoves(SIDE)
+     *  entries.  Allocates nothing, so that search can reuse one
+     *  buffer per ply. */
+    int legalMoves(Piece side, int[] moves) {
+        int n = 0;
+        long[] queens = bits(side);
+        for (int q = Bits.next(queens, 0); q >= 0;
+             q = Bits.next(queens, q + 1)) {
+            n += legalMovesFrom(q, moves, n);
+        }
+        return n;
+    }
+
+    /** Store the legal moves of the queen on the square with index FROM
+     *  into MOVES in packed form, starting at MOVES[START], and return
+     *  how many there are.  MOVES must have room for maxReach() squared
+     *  entries after START. */
+    int legalMovesFrom(int from, int[] moves, int start) {
+        int n = start;
+        int numTo = reachable(from, -1, _toSquares);
+        for (int i = 0; i < numTo; i += 1) {
+            int to = _toSquares[i];
+            int numSpears = reachable(to, from, _spearSquares);
+            for (int j = 0; j < numSpears; j += 1) {
+                moves[n] = Move.code(from, to, _spearSquares[j]);
+                n += 1;
+            }
+        }
+        return n - start;
+    }
+
+    /** Return an upper bound on the number of legal moves SIDE can have
+     *  on this board: the size of move buffer legalMoves needs. */
+    int maxMoves(Piece side) {
+        int maxReach = _geometry.maxReach();
+        return Bits.count(bits(side)) * maxReach * maxReach;
+    }
+
+    /** Return the number of legal moves SIDE (regardless of whose turn
+     *  it is) has in the current position: the number legalMoves would
+     *  store.  Nothing is generated; for each queen destination this
+     *  adds up the population counts of the four spear lines, with the
+     *  queen's square treated as empty. */
+    int countMoves(Piece side) {
+        int n = 0;
+        long[] queens = bits(side);
+        for (int q = Bits.next(queens, 0); q >= 0;
+             q = Bits.next(queens, q + 1)) {
+            int numTo = reachable(q, -1, _toSquares);
+            for (int i = 0; i < numTo; i += 1) {
+                n += reachCount(_toSquares[i], q);
+            }
+        }
+        return n;
+    }
+
+    /** Return the number of queen moves SIDE (regardless of whose turn
+     *  it is) has in the current position, ignoring spear throws: the
+     *  number queenMoves would store.  This is a much cheaper measure of
+     *  mobility than countMoves. */
+    int queenMobility(Piece side) {
+        int n = 0;
+        long[] queens = bits(side);
+        for (int q = Bits.next(queens, 0); q >= 0;
+             q = Bits.next(queens, q + 1)) {
+            n += reachCount(q, -1);
+        }
+        return n;
+    }
+
+    /** Store all queen moves for SIDE (regardless of whose turn it is)
+     *  into MOVES, packed as by Move.code with a spear of 0, and return
+     *  how many there are.  These are the first halves of SIDE's legal
+     *  moves (see makeQueenMove).  MOVES must have room for at least
+     *  maxQueenMoves(SIDE) entries. */
+    int queenMoves(Piece side, int[] moves) {
+        return queenMoves(side, false, moves);
+    }
+
+    /** As for queenMoves(SIDE, MOVES), but if CONTESTEDONLY, omit the
+     *  moves of sealed queens (see isSealed). */
+    int queenMoves(Piece side, boolean contestedOnly, int[] moves) {
+        int n = 0;
+        long[] queens = bits(side);
+        for (int q = Bits.next(queens, 0); q >= 0;
+             q = Bits.next(queens, q + 1)) {
+            if (contestedOnly && isSealed(q)) {
+                continue;
+            }
+            int numTo = reachable(q, -1, _toSquares);
+            for (int i = 0; i < numTo; i += 1) {
+                moves[n] = Move.code(q, _toSquares[i], 0);
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    /** Return my regions (see Regions), first bringing them up to date
+     *  if they have been invalidated. */
+    private Regions regions() {
+        if (!_regions.isValid()) {
+            _regions.rebuild(_spearBits, _whiteBits, _blackBits);
+        }
+        return _regions;
+    }
+
+    /** Return the number of regions: the connected groups of squares
+     *  without spears (see Regions).  The regions are numbered from 0,
+     *  and are kept up to date by makeMove and undo. */
+    int regionCount() {
+        return regions().count();
+    }
+
+    /** Return the region of the square with index K, or -1 if it holds
+     *  a spear. */
+    int region(int k) {
+        return regions().region(k);
+    }
+
+    /** Return the bitboard of the squares of region R.  The caller must
+     *  not modify it, and it is valid only until the next change to
+     *  this board. */
+    long[] regionSquares(int r) {
+        return regions().squares(r);
+    }
+
+    /** Return the number of SIDE's queens in region R. */
+    int regionQueens(int r, Piece side) {
+        return regions().queens(r, side);
+    }
+
+    /** Return true iff region R holds queens of both sides.  A region
+     *  that is not contested belongs to the side whose queens are in it
+     *  (if any): the other side can never enter it. */
+    boolean isContested(int r) {
+        return regions().isContested(r);
+    }
+
+    /** Return the number of SIDE's queens a king move away from the
+     *  square with index K. */
+    int adjacentQueens(int k, Piece side) {
+        long[] adjacent = _geometry.adjacent(k), queens = bits(side);
+        int n = 0;
+        for (int w = 0; w < _words; w += 1) {
+            n += Long.bitCount(adjacent[w] & queens[w]);
+        }
+        return n;
+    }
+
+    /** Store the indices of the squares holding SIDE's queens into
+     *  SQUARES, and return how many there are. */
+    int queens(Piece side, int[] squares) {
+        long[] queens = bits(side);
+        int n = 0;
+        for (int q = Bits.next(queens, 0); q >= 0;
+             q = Bits.next(queens, q + 1)) {
+            squares[n] = q;
+            n += 1;
+        }
+        return n;
+    }
+
+    /** Set BITS to the bitboard of the squares holding P (WHITE, BLACK,
+     *  or SPEAR). */
+    void pieceBits(Piece p, long[] bits) {
+        System.arraycopy(bits(p), 0, bits, 0, _words);
+    }
+
+    /** Set BITS to the bitboard of the empty squares. */
+    void emptyBits(long[] bits) {
+        for (int w = 0; w < _words; w += 1) {
+            bits[w] = ~_occupied[w];
+        }
+        int extra = _words * Long.SIZE - _size * _size;
+        bits[_words - 1] &= -1L >>> extra;
+    }
+
+    /** Return the indices of the squares a king move away from the
+     *  square with index K.  The caller must not modify the result. */
+    int[] neighbors(int k) {
+        return _geometry.neighbors(k);
+    }
+
+    /** Return the number of empty squares on the board. */
+    int emptySquares() {
+        return _size * _size - Bits.count(_occupied);
+    }
+
+    /** Return the number of empty squares in the bitboard AREA. */
+    int emptySquares(long[] area) {
+        int n = 0;
+        for (int k = 0; k < _words; k += 1) {
+            n += Long.bitCount(area[k] & ~_occupied[k]);
+        }
+        return n;
+    }
+
+    /** Return true iff the square with index K holds a queen whose region
+     *  holds no queen of the other side, so that its moves cannot affect
+     *  the other side until the end of the game. */
+    boolean isSealed(int k) {
+        return !isEmpty(k) && !Bits.get(_spearBits, k)
+            && !isContested(region(k));
+    }
+
+    /** Return an upper bound on the number of queen moves SIDE can have
+     *  on this board: the size of move buffer queenMoves needs. */
+    int maxQueenMoves(Piece side) {
+        return Bits.count(bits(side)) * _geometry.maxReach();
+    }
+
+    /** Store into SQUARES the indices of the squares to which the spear
+     *  of the pending move (see makeQueenMove) may be thrown, and return
+     *  how many there are.  SQUARES must have room for maxReach()
+     *  entries. */
+    int spearThrows(int[] squares) {
+        assert _pendingFrom >= 0;
+        return reachable(_pendingTo, -1, squares);
+    }
+
+    /** Return an upper bound on the number of squares reachable by a
+     *  queen move from any one square of this board. */
+    int maxReach() {
+        return _geometry.maxReach();
+    }
+
+    /** Return the number of squares reachable by an unblocked queen move
+     *  from the square with index FROM, treating the square with index
+     *  ASEMPTY (if not -1) as empty. */
+    int reachCount(int from, int asEmpty) {
+        int n = 0;
+        for (int type = 0; type < Lines.TYPES; type += 1) {
+            n += Integer.bitCount(lineReach(from, asEmpty, type));
+        }
+        return n;
+    }
+
+    /** Store into RESULT the indices of all squares reachable by an
+     *  unblocked queen move from the square with index FROM, treating
+     *  the square with index ASEMPTY (if not -1) as empty, and return
+     *  how many there are.  RESULT must have room for
+     *  Geometry.maxReach() entries.  Each of the four lines through
+     *  FROM costs one table lookup (see Lines). */
+    private int reachable(int from, int asEmpty, int[] result) {
+        int n = 0;
+        for (int type = 0; type < Lines.TYPES; type += 1) {
+            int line = _lines.line(from, type);
+            int reach = lineReach(from, asEmpty, type);
+            while (reach != 0) {
+                result[n] = _lines.square(line,
+                                         Integer.numberOfTrailingZeros(reach));
+                n += 1;
+                reach &= reach - 1;
+            }
+        }
+        return n;
+    }
+
     /** An iterator used by reachableFrom. */
     private class ReachableFromIterator implements Iterator<Square> {
 
         /** Iterator of all squares reachable by queen move from FROM,
          *  treating ASEMPTY as empty. */
         ReachableFromIterator(Square from, Square asEmpty) {
-            _from = from;
-            _dir = -1;
-            _steps = 0;
-            _asEmpty = asEmpty;
-            toNext();
+            _squares = new int[_geometry.maxReach()];
+            _count = reachable(index(from),
+                               asEmpty == null ? -1 : index(asEmpty),
+                               _squares);
         }
 
         @Override
         public boolean hasNext() {
-            return _dir < 8;
+            return _next < _count;
         }
 
         @Override
         public Square next() {
-            Square dirMove = _from.queenMove(_dir, _steps);
-            if (dirMove == null) {
-                System.out.println(_dir);
-                System.out.println("here");
-            }
-            toNext();
-            return dirMove;
-        }
-
-        /** Advance _dir and _steps, so that the next valid Square is
-         *  _steps steps in direction _dir from _from. */
-        private void toNext() {
-            while (_dir < 8) {
-                _steps += 1;
-                if (_from.queenMove(_dir, _steps) == null
-                        || !((get(_from.queenMove(_dir, _steps)) == EMPTY)
-                        || (_from.queenMove(_dir, _steps) == _asEmpty))) {
-                    _dir += 1;
-                    _steps = 0;
-                } else {
-                    return;
-                }
-            }
+            Square s = Square.sqIndex(_size, _squares[_next]);
+            _next += 1;
+            return s;
         }
 
-        /** Starting square. */
-        private Square _from;
-        /** Current direction. */
-        private int _dir;
-        /** Current distance. */
-        private int _steps;
-        /** Square treated as empty. */
-        private Square _asEmpty;
+        /** Indices of the reachable squares. */
+        private final int[] _squares;
+        /** Number of entries of _squares in use. */
+        private final int _count;
+        /** Position in _squares of the next square to deliver. */
+        private int _next;
     }
 
     /** An iterator used by legalMoves. */
@@ -315,116 +846,38 @@ class Board {
 
         /** All legal moves for SIDE (WHITE or BLACK). */
         LegalMoveIterator(Piece side) {
-            _startingSquares = Square.iterator();
-            _spearThrows = NO_SQUARES;
-            _pieceMoves = NO_SQUARES;
-            _fromPiece = side;
-            toNext();
+            _moves = new int[maxMoves(side)];
+            _count = legalMoves(side, _moves);
         }
 
         @Override
         public boolean hasNext() {
-            boolean pStart = _startingSquares.hasNext();
-            boolean pNext = _pieceMoves.hasNext();
-            boolean pSpear = _spearThrows.hasNext();
-            return pStart || pNext || pSpear;
+            return _next < _count;
         }
 
         @Override
         public Move next() {
-            if (_start == null) {
-                System.out.println("start is null");
-            }
-            if (_nextSquare == null) {
-                System.out.println("nextsquaer is null");
-            }
-            if (_sp == null) {
-                System.out.println("sp is null");
-            }
-            Move legalMove = Move.mv(_start, _nextSquare,  _sp);
-            toNext();
-            return legalMove;
-        }
-
-        /** Advance so that the next valid Move is
-         *  _start-_nextSquare(sp), where sp is the next value of
-         *  _spearThrows. */
-        private void toNext() {
-            if (!_spearThrows.hasNext()) {
-                if (!_pieceMoves.hasNext()) {
-
-                    Square checkSide = _startingSquares.next();
-                    while (!get(checkSide).equals(_fromPiece)
-                            && checkSide != null) {
-                        if (!_startingSquares.hasNext()) {
-                            return;
-                        }
-                        checkSide = _startingSquares.next();
-                    }
-                    _start = checkSide;
-
-                    if (_start != null) {
-                        _pieceMoves =
-                                new Board.ReachableFromIterator(_start, null);
-                        if (_pieceMoves.hasNext()) {
-                            _nextSquare = _pieceMoves.next();
-                            _spearThrows =
-                                    new Board.ReachableFromIterator(
-                                            _nextSquare, _start);
-                            _sp = _spearThrows.next();
-                        } else {
-                            toNext();
-                            return;
-                        }
-                        return;
-                    }
-
-                } else {
-                    _nextSquare = _pieceMoves.next();
-                    _spearThrows =
-                            new Board.ReachableFromIterator(
-                                    _nextSquare, _start);
-                    _sp = _spearThrows.next();
-                }
-            } else {
-                _sp = _spearThrows.next();
-            }
+            Move move = Move.mv(_size, _moves[_next]);
+            _next += 1;
+            return move;
         }
 
-        /** Current Spearthrow position. **/
-        private Square _sp;
-        /** Color of side whose moves we are iterating. */
-        private Piece _fromPiece;
-        /** Current starting square. */
-        private Square _start;
-        /** Remaining starting squares to consider. */
-        private Iterator<Square> _startingSquares;
-        /** Current piece's new postion. */
-        private Square _nextSquare;
-        /** Remaining moves from _start to consider. */
-        private Iterator<Square> _pieceMoves;
-        /** Remaining spear throws from _piece to consider. */
-        private Iterator<Square> _spearThrows;
+        /** The packed legal moves. */
+        private final int[] _moves;
+        /** Number of entries of _moves in use. */
+        private final int _count;
+        /** Position in _moves of the next move to deliver. */
+        private int _next;
     }
 
     @Override
     public String toString() {
         Formatter out = new Formatter();
-        for (int row = 9; row >= 0; row--) {
+        for (int row = _size - 1; row >= 0; row--) {
             out.format("   ");
-            for (char col = 0; col < 10; col++) {
-                Piece pc = get(col, row);
-                String p;
-                if (pc.equals(EMPTY)) {
-                    p = "-";
-                } else if (pc.equals(WHITE)) {
-                    p = "W";
-                } else if (pc.equals(BLACK)) {
-                    p = "B";
-                } else {
-                    p = "S";
-                }
-                if (col != 9) {
+            for (int col = 0; col < _size; col++) {
+                String p = get(col, row).toString();
+                if (col != _size - 1) {
                     out.format("%s ", p);
                 } else {
                     out.format("%s", p);
@@ -436,22 +889,73 @@ class Board {
         return out.toString();
     }
 
-    /** Arraylist for storing moves. */
-    private ArrayList<Move> arrayMoves = new ArrayList<Move>();
-
-    /** Number of moves. */
-    private int _moves;
-
-    /** An empty iterator for initialization. */
-    private static final Iterator<Square> NO_SQUARES =
-        Collections.emptyIterator();
+    /** The undo journal: for each move made on this board, oldest first,
+     *  the packed move (see Move.code) with the ordinal of the winner
+     *  before the move in the bits from WINNER_SHIFT up.  A game has
+     *  fewer moves than there are squares, since each move places a
+     *  spear, so the journal is allocated once and never grows. */
+    private int[] _journal;
+    /** The value of hash() before each move in _journal. */
+    private long[] _journalHash;
+    /** Number of moves in the journal that have not been undone. */
+    private int _numMoves;
+    /** True iff the journal arrays may also be in use by another Board,
+     *  so that they must be copied before they are modified. */
+    private boolean _journalShared;
+
+    /** Position in a journal entry of the winner's ordinal, just above
+     *  the packed move.  A null winner is recorded as EMPTY. */
+    private static final int WINNER_SHIFT = 24;
+
+    /** The pieces, indexed by ordinal, with null for EMPTY, so that
+     *  PIECES[p == null ? 0 : p.ordinal()] == p for any winner p. */
+    private static final Piece[] PIECES = { null, WHITE, BLACK, SPEAR };
+
+    /** The scratch board of each thread (see scratchCopy). */
+    private static final ThreadLocal<Board> SCRATCH =
+        ThreadLocal.withInitial(Board::new);
 
     /** Piece whose turn it is (BLACK or WHITE). */
     private Piece _turn;
-    /** Cached value of winner on this board, or EMPTY if it has not been
-     *  computed. */
+    /** Zobrist hash of the current position (see hash()). */
+    private long _hash;
+    /** Cached value of winner on this board, or null if the game is not
+     *  yet finished.  Kept current by put, makeMove, and undo. */
     private Piece _winner;
 
-    /** Pieces initial placement. */
-    private Piece[][] piecesSetup;
+    /** The squares the queen of the pending move (see makeQueenMove)
+     *  left and entered, or -1 if no move is pending. */
+    private int _pendingFrom, _pendingTo;
+    /** The value of hash() before the pending move. */
+    private long _pendingHash;
+    /** The value of winner() before the pending move. */
+    private Piece _pendingWinner;
+
+    /** Scratch buffers for the piece moves and spear throws considered
+     *  by legalMoves. */
+    private int[] _toSquares, _spearSquares;
+
+    /** The size-dependent tables for this board. */
+    private Geometry _geometry;
+    /** Number of squares on a side. */
+    private int _size;
+    /** Number of longs in each of my bitboards. */
+    private int _words;
+    /** Queen-move tables for my size (the same as _geometry.lines()). */
+    private Lines _lines;
+
+    /** Bitboards of the squares holding white queens, black queens,
+     *  and spears, indexed by Square.index(). */
+    private long[] _whiteBits, _blackBits, _spearBits;
+
+    /** Bitboard of all non-empty squares: the union of _whiteBits,
+     *  _blackBits, and _spearBits. */
+    private long[] _occupied;
+
+    /** The regions of this board, possibly out of date (see regions). */
+    private Regions _regions;
+
+    /** The occupied positions along each line of _lines, indexed by line.
+     *  Kept in step with _occupied by occupy and vacate. */
+    private int[] _lineOccupied;
 }
@@ -85,8 +85,8 @@ class BoardWidget extends Pad {
         int x = xpos / SQUARE_SIDE,
             y = (BOARD_SIDE - ypos) / SQUARE_SIDE;
         if (_acceptingMoves
-            && x >= 0 && x < Board.SIZE && y >= 0 && y < Board.SIZE) {
-            click(sq(x, y));
+            && Square.exists(_board.size(), x, y)) {
+            click(sq(_board.size(), x, y));
         }
     }
 
@@ -113,7 +113,7 @@ class BoardWidget extends Pad {
     /** Return y-pixel coordinate of the upper corners of row Y
      *  relative to the upper-left corner of the board. */
     private int cy(int y) {
-        return (Board.SIZE - y - 1) * SQUARE_SIDE;
+        return (_board.size() - y - 1) * SQUARE_SIDE;
     }
 
     /** Return x-pixel coordinate of the left corner of S
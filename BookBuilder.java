@@ -0,0 +1,140 @@
+package amazons;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import static amazons.Piece.*;
+import static amazons.Utils.error;
+
+/** Builds an opening book (see OpeningBook) by searching the first few
+ *  moves of the game deeply, away from any game and its clock.  From
+ *  each position it reaches, the builder finds the best move by a
+ *  search to a fixed depth, and adds a few more candidates: the moves
+ *  whose resulting positions the static evaluation likes best.  Each
+ *  candidate is scored by a search of the same depth, recorded, and
+ *  its position expanded in turn, until the book reaches the given
+ *  number of plies.  Positions reached by more than one line are
+ *  expanded only once.
+ *
+ *  The searches are those of an AI, and so run in parallel on its
+ *  threads, if it has them.
+ *  @author Frederick Fan
+ */
+class BookBuilder {
+
+    /** Default number of plies, candidates per position, and search
+     *  depth of a book. */
+    static final int DEFAULT_PLIES = 3, DEFAULT_WIDTH = 3, DEFAULT_DEPTH = 3;
+
+    /** A builder that searches with AI to depth DEPTH, recording WIDTH
+     *  candidate moves in each position up to PLIES moves from the
+     *  start. */
+    BookBuilder(AI ai, int plies, int width, int depth) {
+        if (plies < 1 || width < 1 || depth < 1) {
+            throw error("book plies, width, and depth must be positive");
+        }
+        _ai = ai;
+        _plies = plies;
+        _depth = depth;
+        _candidates = new int[plies][width];
+    }
+
+    /** Expand the book from (a copy of) the position on START. */
+    void build(Board start) {
+        _searcher = _ai.acquireSearcher();
+        expand(new Board(start), 0);
+        _ai.releaseSearcher(_searcher);
+    }
+
+    /** Return the number of records built so far. */
+    int size() {
+        return _entries.size();
+    }
+
+    /** Write the book to the file named NAME. */
+    void write(String name) {
+        OpeningBook.write(name, _entries);
+    }
+
+    /** Record candidate moves for BOARD, PLY moves from the start, and
+     *  expand the positions they lead to.  Return the number of
+     *  positions expanded, including BOARD's, which is left as it
+     *  was. */
+    private int expand(Board board, int ply) {
+        if (ply >= _plies || board.winner() != null
+            || !_expanded.add(board.hash())) {
+            return 0;
+        }
+        int value = _ai.searchToDepth(_searcher, board, _depth);
+        int[] candidates = _candidates[ply];
+        int n = candidates(board, _searcher.lastFoundMove(), candidates);
+        int total = 1;
+        for (int i = 0; i < n; i += 1) {
+            int score = value;
+            board.makeMove(candidates[i]);
+            if (i > 0) {
+                score = -_ai.searchToDepth(_searcher, board, _depth - 1);
+            }
+            int count = expand(board, ply + 1);
+            board.undo();
+            _entries.add(new OpeningBook.Entry(board.hash(), candidates[i],
+                                               score, count));
+            total += count;
+        }
+        return total;
+    }
+
+    /** Fill CANDIDATES with the moves to record for BOARD: BEST, then
+     *  the others whose resulting positions have the highest static
+     *  values for the side to move, up to CANDIDATES.length in all.
+     *  Return the number of candidates. */
+    private int candidates(Board board, int best, int[] candidates) {
+        candidates[0] = best;
+        int n = 1, width = candidates.length;
+        if (width == 1) {
+            return n;
+        }
+        int sense = board.turn() == WHITE ? 1 : -1;
+        int[] values = new int[width];
+        int[] moves = new int[board.maxMoves(board.turn())];
+        int numMoves = board.legalMoves(board.turn(), moves);
+        for (int i = 0; i < numMoves; i += 1) {
+            if (moves[i] == best) {
+                continue;
+            }
+            board.makeMove(moves[i]);
+            int value = board.winner() != null ? sense * AI.WINNING_VALUE
+                : sense * _territory.evaluate(board);
+            board.undo();
+            if (n == width && value <= values[n - 1]) {
+                continue;
+            }
+            int k = n < width ? n : n - 1;
+            for (; k > 1 && values[k - 1] < value; k -= 1) {
+                candidates[k] = candidates[k - 1];
+                values[k] = values[k - 1];
+            }
+            candidates[k] = moves[i];
+            values[k] = value;
+            n = Math.min(n + 1, width);
+        }
+        return n;
+    }
+
+    /** The AI whose searches I use. */
+    private final AI _ai;
+    /** Number of moves from the start that the book covers. */
+    private final int _plies;
+    /** Depth of the searches that score candidates. */
+    private final int _depth;
+    /** For each ply, a buffer for the candidates of its position. */
+    private final int[][] _candidates;
+    /** The Searcher used for the current build. */
+    private Searcher _searcher;
+    /** Static evaluator for ranking candidates. */
+    private final Territory _territory = new Territory();
+    /** Hashes of the positions already expanded. */
+    private final HashSet<Long> _expanded = new HashSet<>();
+    /** The records built so far. */
+    private final ArrayList<OpeningBook.Entry> _entries = new ArrayList<>();
+}
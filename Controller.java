@@ -6,6 +6,7 @@ import java.util.Scanner;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import static amazons.Utils.*;
 import static amazons.Piece.*;
@@ -18,21 +19,25 @@ final class Controller {
 
     /** Controller for one or more games of Amazons, using
      *  MANUALPLAYERTEMPLATE as an exemplar for manual players
-     *  (see the Player.create method) and AUTOPLAYERTEMPLATE
-     *  as an exemplar for automated players.  Reports
+     *  (see the Player.create method), AUTOPLAYERTEMPLATE
+     *  as an exemplar for automated players, and the Player supplied by
+     *  MCTSPLAYERS (asked for one only when first needed) as an exemplar
+     *  for the Monte Carlo players set by the mcts command.  Reports
      *  board changes to VIEW at appropriate points.  Uses REPORTER
      *  to report moves, wins, and errors to user. If LOGFILE is
      *  non-null, copies all commands to it. If STRICT, exits the
      *  program with non-zero code on receiving an erroneous move from a
      *  player. */
     Controller(View view, PrintStream logFile, Reporter reporter,
-               Player manualPlayerTemplate, Player autoPlayerTemplate) {
+               Player manualPlayerTemplate, Player autoPlayerTemplate,
+               Supplier<Player> mctsPlayers) {
         _view = view;
         _playing = false;
         _logFile = logFile;
         _input = new Scanner(System.in);
         _autoPlayerTemplate = autoPlayerTemplate;
         _manualPlayerTemplate = manualPlayerTemplate;
+        _mctsPlayers = mctsPlayers;
         _nonPlayer = manualPlayerTemplate.create(EMPTY, this);
         _reporter = reporter;
     }
@@ -42,6 +47,7 @@ final class Controller {
         _playing = true;
         _winner = null;
         _board.init();
+        _timeUsed = 0;
         _white = _manualPlayerTemplate.create(WHITE, this);
         _black = _autoPlayerTemplate.create(BLACK, this);
         while (_playing) {
@@ -104,6 +110,23 @@ final class Controller {
         }
     }
 
+    /** Return the time allowed for any one move, in milliseconds. */
+    long moveTimeLimit() {
+        return _moveTime;
+    }
+
+    /** Return the time remaining for the automated players' moves in
+     *  the current game, in milliseconds. */
+    long gameTimeLeft() {
+        return Math.max(0, _gameTime - _timeUsed);
+    }
+
+    /** Record that an automated player has spent MILLIS milliseconds
+     *  choosing a move. */
+    void chargeTime(long millis) {
+        _timeUsed += millis;
+    }
+
     /** Report error by calling reportError(FORMAT, ARGS) on my reporter. */
     void reportError(String format, Object... args) {
         _reporter.reportError(format, args);
@@ -144,8 +167,11 @@ final class Controller {
         new Command("seed\\s+(\\d+)$", this::doSeed),
         new Command("dump$", this::doDump),
         new Command("new$", this::doNew),
+        new Command("size\\s+(\\d+)$", this::doSize),
+        new Command("time\\s+(\\d+)\\s+(\\d+)$", this::doTime),
         new Command("auto\\s+(\\w+)$", this::doAuto),
         new Command("manual\\s+(\\w+)$", this::doManual),
+        new Command("mcts\\s+(\\w+)$", this::doMcts),
         new Command(Move.MOVE_PATTERN.toString(), this::doMove)
 
     };
@@ -155,7 +181,7 @@ final class Controller {
 
     /** Check that CMND is one of the valid Amazons commands and execute it, if
      *  so, raising an IllegalArgumentException otherwise. */
-    private void executeCommand(String cmnd) {
+    void executeCommand(String cmnd) {
         if (_logFile != null) {
             _logFile.println(cmnd);
             _logFile.flush();
@@ -181,9 +207,11 @@ final class Controller {
     /** Command doAuto is "Auto" with parameter MATCH.*/
     private void doAuto(Matcher match) {
         if (match.group(1).equals("white")) {
+            retire(_white);
             _white = _autoPlayerTemplate.create(WHITE, this);
         }
         if (match.group(1).equals("black")) {
+            retire(_black);
             _black = _autoPlayerTemplate.create(BLACK, this);
         }
     }
@@ -193,10 +221,15 @@ final class Controller {
         String moveString = match.group(0);
         boolean notNull = !moveString.equals(null);
         if (notNull) {
-            Move move = Move.mv(moveString);
+            Move move = Move.mv(board().size(), moveString);
+            if (move == null) {
+                throw error("Invalid move: %s", moveString);
+            }
             board().makeMove(move);
 
             if (board().winner() != null) {
+                retire(_white);
+                retire(_black);
                 _winner = board().winner();
                 reportNote(board().winner().toName() + " wins.");
             }
@@ -206,22 +239,79 @@ final class Controller {
     /** Command doManual is "Manual" with parameter MATCH. */
     private void doManual(Matcher match) {
         if (match.group(1).equals("white")) {
+            retire(_white);
             _white = _manualPlayerTemplate.create(WHITE, this);
         }
         if (match.group(1).equals("black")) {
+            retire(_black);
             _black = _manualPlayerTemplate.create(BLACK, this);
         }
     }
 
 
+    /** Command doMcts is "mcts" with parameter MATCH: the side it names
+     *  is played by a Monte Carlo player. */
+    private void doMcts(Matcher match) {
+        if (_mctsPlayerTemplate == null) {
+            _mctsPlayerTemplate = _mctsPlayers.get();
+        }
+        if (match.group(1).equals("white")) {
+            retire(_white);
+            _white = _mctsPlayerTemplate.create(WHITE, this);
+        }
+        if (match.group(1).equals("black")) {
+            retire(_black);
+            _black = _mctsPlayerTemplate.create(BLACK, this);
+        }
+    }
+
+    /** Stop PLAYER, which is being replaced or whose game is over, from
+     *  pondering.  PLAYER may be null, for none. */
+    private void retire(Player player) {
+        if (player != null) {
+            player.stopPondering();
+        }
+    }
+
     /** Command doNew is "new". */
     private void doNew(Matcher unused) {
+        retire(_white);
+        retire(_black);
         _board.init();
         _winner = null;
+        _timeUsed = 0;
+    }
+
+    /** Command doSize is "size N", where N is the first group of MAT.
+     *  Starts a new game on an N x N board. */
+    private void doSize(Matcher mat) {
+        retire(_white);
+        retire(_black);
+        try {
+            _board.init(Integer.parseInt(mat.group(1)));
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
+        _winner = null;
+        _timeUsed = 0;
+    }
+
+    /** Command doTime is "time MOVE GAME", where MOVE and GAME, the first
+     *  two groups of MAT, are the seconds allowed for one move and for
+     *  all the automated players' moves in a game. */
+    private void doTime(Matcher mat) {
+        try {
+            _moveTime = Integer.parseInt(mat.group(1)) * 1000L;
+            _gameTime = Integer.parseInt(mat.group(2)) * 1000L;
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
     }
 
     /** Command doQuit is "quit". */
     private void doQuit(Matcher unused) {
+        retire(_white);
+        retire(_black);
         _playing = false;
     }
 
@@ -243,6 +333,22 @@ final class Controller {
     /** The board. */
     private Board _board = new Board();
 
+    /** Default time limits for one move and for the automated players'
+     *  moves in a game, in milliseconds, used until a time command is
+     *  given.  These are kept well inside what a referee is likely to
+     *  allow, since its clock may also run during an opponent's moves,
+     *  which we cannot see. */
+    private static final long DEFAULT_MOVE_TIME = 5000,
+        DEFAULT_GAME_TIME = 20000;
+
+    /** Time limits for one move and for the automated players' moves in
+     *  a game, in milliseconds (see doTime). */
+    private long _moveTime = DEFAULT_MOVE_TIME, _gameTime = DEFAULT_GAME_TIME;
+
+    /** Time spent by the automated players in the current game, in
+     *  milliseconds. */
+    private long _timeUsed;
+
     /** The winning side of the current game. */
     private Piece _winner;
 
@@ -271,6 +377,11 @@ final class Controller {
 
     /** The current templates for manual and automated players. */
     private Player _autoPlayerTemplate, _manualPlayerTemplate;
+    /** Source of the template for Monte Carlo players (see doMcts). */
+    private Supplier<Player> _mctsPlayers;
+    /** The template for Monte Carlo players, or null if not yet
+     *  needed. */
+    private Player _mctsPlayerTemplate;
 
     /** Reporter for messages and errors. */
     private Reporter _reporter;
@@ -0,0 +1,240 @@
+package amazons;
+
+import java.util.Arrays;
+
+import static amazons.Piece.*;
+
+/** Endgame analysis for positions in which no region is contested (see
+ *  Regions).  Such a position is a sum of independent one-player games:
+ *  each side can only fill in its own regions, one move at a time, and
+ *  the side to move loses as soon as it runs out of moves.  So each
+ *  region is worth the largest number of moves its owner can make in
+ *  it (its fill), a side's total is the sum over its regions, and the
+ *  side to move wins exactly when its total exceeds its opponent's.
+ *  The best move is the first move of a longest fill in any region the
+ *  mover owns.
+ *
+ *  Fills are found by a depth-first search of each region on its own,
+ *  which is exact unless it exceeds a limit on the number of positions
+ *  examined, or runs past a deadline.  The search stops early when a
+ *  region is filled completely, since no fill can be longer than its
+ *  number of empty squares.  When a Tablebase covers a region, its fill
+ *  is known exactly, and the search need only find a move that
+ *  achieves it.
+ *  @author Frederick Fan
+ */
+class Endgame {
+
+    /** An analyzer that examines at most NODELIMIT positions per
+     *  region. */
+    Endgame(int nodeLimit) {
+        this(nodeLimit, null);
+    }
+
+    /** An analyzer as for Endgame(NODELIMIT) that takes the fills of the
+     *  regions TABLEBASE covers from it (if it is not null), searching
+     *  them only for a first move. */
+    Endgame(int nodeLimit, Tablebase tablebase) {
+        _nodeLimit = nodeLimit;
+        _tablebase = tablebase;
+    }
+
+    /** Return true iff no region of BOARD is contested, so that its
+     *  game is a sum of independent regions. */
+    static boolean isSettled(Board board) {
+        for (int r = 0; r < board.regionCount(); r += 1) {
+            if (board.isContested(r)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the best move (packed as by Move.code) for the side to
+     *  move on the settled BOARD (see isSettled), or -1 if it has no
+     *  move.  BOARD is left as it was. */
+    int bestMove(Board board) {
+        return bestMove(board, Long.MAX_VALUE);
+    }
+
+    /** Return the best move on BOARD, as for bestMove(BOARD), as far as
+     *  it can be found by time DEADLINE (from System.currentTimeMillis).
+     *  If the search is cut short, the move may not be best, and
+     *  isExact() is false. */
+    int bestMove(Board board, long deadline) {
+        _deadline = deadline;
+        analyze(board);
+        _deadline = Long.MAX_VALUE;
+        _timedOut = false;
+        return _bestMove;
+    }
+
+    /** Return the difference between the total fill (see fill) of the
+     *  side to move on the settled BOARD and that of its opponent.  The
+     *  side to move wins iff the result is positive (assuming
+     *  isExact()). */
+    int margin(Board board) {
+        analyze(board);
+        return _margin;
+    }
+
+    /** Return true iff every fill found by the last call to bestMove,
+     *  margin, or fill was exact, and came with a first move that
+     *  achieves it, rather than being cut short by the node limit or a
+     *  deadline. */
+    boolean isExact() {
+        return _exact;
+    }
+
+    /** Find the fills of both sides' regions on BOARD, setting
+     *  _bestMove, _margin, and _exact. */
+    private void analyze(Board board) {
+        Piece side = board.turn();
+        int numRegions = board.regionCount();
+        long[][] areas = new long[numRegions][];
+        for (int r = 0; r < numRegions; r += 1) {
+            areas[r] = board.regionSquares(r).clone();
+        }
+        boolean exact = true;
+        int bestFill = 0;
+        _bestMove = -1;
+        _margin = 0;
+        for (long[] area : areas) {
+            Piece owner = owner(board, area);
+            if (owner == null) {
+                continue;
+            }
+            int fill = fill(board, area, owner);
+            exact &= _exact;
+            if (owner == side) {
+                _margin += fill;
+                if (fill > bestFill) {
+                    bestFill = fill;
+                    _bestMove = _firstMove;
+                }
+            } else {
+                _margin -= fill;
+            }
+        }
+        _exact = exact;
+    }
+
+    /** Return the side whose queens are in AREA on BOARD, or null if
+     *  there are none. */
+    private static Piece owner(Board board, long[] area) {
+        for (int k = Bits.next(area, 0); k >= 0;
+             k = Bits.next(area, k + 1)) {
+            Piece p = board.get(k);
+            if (p == WHITE || p == BLACK) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    /** Return the largest number of moves that SIDE's queens in AREA, a
+     *  region of BOARD that holds no queen of the other side, can make
+     *  there (as many as can be found within the node limit), and set
+     *  _firstMove to the first move of such a sequence (-1 if there is
+     *  none).  BOARD is left as it was.  AREA must not be a bitboard
+     *  belonging to BOARD, which changes during the search. */
+    int fill(Board board, long[] area, Piece side) {
+        Piece turn = board.turn();
+        board.setTurn(side);
+        _nodes = 0;
+        _exact = true;
+        _firstMove = -1;
+        int known = _tablebase == null ? -1 : _tablebase.fill(board, area);
+        int result = fill(board, area, side, 0,
+                          known >= 0 ? known : board.emptySquares(area));
+        if (known >= 0) {
+            _exact = result == known;
+            result = known;
+        }
+        board.setTurn(turn);
+        return result;
+    }
+
+    /** Return the longest fill by SIDE's queens in AREA on BOARD found by
+     *  a search of the positions at DEPTH moves from the start of the
+     *  fill, given that no fill is longer than BOUND.  SIDE is to move
+     *  on BOARD. */
+    private int fill(Board board, long[] area, Piece side, int depth,
+                     int bound) {
+        _nodes += 1;
+        int[] moves = buffer(board, side, depth);
+        int numMoves = 0;
+        for (int k = Bits.next(area, 0); k >= 0;
+             k = Bits.next(area, k + 1)) {
+            if (board.get(k) == side) {
+                numMoves += board.legalMovesFrom(k, moves, numMoves);
+            }
+        }
+        int best = 0;
+        for (int i = 0; i < numMoves && best < bound; i += 1) {
+            if (_nodes >= _nodeLimit || pastDeadline()) {
+                _exact = false;
+                break;
+            }
+            board.makeMove(moves[i]);
+            board.setTurn(side);
+            int length = 1 + fill(board, area, side, depth + 1, bound - 1);
+            board.setTurn(side.opponent());
+            board.undo();
+            if (length > best) {
+                best = length;
+                if (depth == 0) {
+                    _firstMove = moves[i];
+                }
+            }
+        }
+        return best;
+    }
+
+    /** Return true iff the deadline has passed, reading the clock at
+     *  the first position of each fill and once every CLOCK_INTERVAL
+     *  positions after. */
+    private boolean pastDeadline() {
+        if (!_timedOut && _nodes % CLOCK_INTERVAL == 1
+            && System.currentTimeMillis() >= _deadline) {
+            _timedOut = true;
+        }
+        return _timedOut;
+    }
+
+    /** Return the move buffer for DEPTH, large enough for all moves of
+     *  SIDE on BOARD, allocating it when first needed. */
+    private int[] buffer(Board board, Piece side, int depth) {
+        if (depth >= _buffers.length) {
+            _buffers = Arrays.copyOf(_buffers, depth + 1);
+        }
+        int size = board.maxMoves(side);
+        if (_buffers[depth] == null || _buffers[depth].length < size) {
+            _buffers[depth] = new int[size];
+        }
+        return _buffers[depth];
+    }
+
+    /** Number of positions between readings of the clock. */
+    private static final int CLOCK_INTERVAL = 256;
+
+    /** Exact fills of small regions, or null if none. */
+    private final Tablebase _tablebase;
+    /** Maximum number of positions examined per fill. */
+    private final int _nodeLimit;
+    /** Time at which the current analysis stops, or Long.MAX_VALUE if
+     *  none. */
+    private long _deadline = Long.MAX_VALUE;
+    /** True iff the current analysis has run past _deadline. */
+    private boolean _timedOut;
+    /** Number of positions examined by the current fill. */
+    private int _nodes;
+    /** True iff the current fill has not reached the node limit. */
+    private boolean _exact;
+    /** First move of the longest fill found by the last fill. */
+    private int _firstMove;
+    /** Results of the last analyze. */
+    private int _bestMove, _margin;
+    /** Move buffers for each depth of fill. */
+    private int[][] _buffers = new int[0][];
+}
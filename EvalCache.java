@@ -0,0 +1,103 @@
+package amazons;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A fixed-size, direct-mapped cache of static evaluations, indexed by
+ *  position hash (see Board.hash), so that a position reached again (in
+ *  a later iteration, or in another subtree by transposition) is not
+ *  evaluated again.  Each entry is a single long: the high half of the
+ *  hash, as a check, and the score.  A new score simply replaces
+ *  whatever shared its slot.
+ *
+ *  Entries are read and written without locks, so that several search
+ *  threads can share one cache.  Because an entry is one long, which
+ *  the JVM reads and writes whole on 64-bit platforms, a reader sees
+ *  either the old entry or the new one, never a mixture.  The cache
+ *  counts its probes and hits, so that its hit rate can be used to
+ *  choose its size.
+ *  @author Frederick Fan
+ */
+class EvalCache {
+
+    /** A cache occupying about MEGABYTES megabytes (at least one
+     *  entry). */
+    EvalCache(int megabytes) {
+        long entries = Math.min(((long) megabytes << 20) / Long.BYTES,
+                                MAX_ENTRIES);
+        int n = Integer.highestOneBit((int) Math.max(entries, 1));
+        _table = new long[n];
+        _mask = n - 1;
+    }
+
+    /** Return the entry stored for the position whose hash is HASH, or 0
+     *  if there is none.  The score of a non-zero result is available
+     *  through score. */
+    long probe(long hash) {
+        _probes.increment();
+        long entry = _table[(int) hash & _mask];
+        if (entry != 0 && (entry ^ hash) >>> CHECK_SHIFT == 0) {
+            _hits.increment();
+            return entry;
+        }
+        return 0;
+    }
+
+    /** Record that the position whose hash is HASH has static value
+     *  SCORE. */
+    void store(long hash, int score) {
+        _table[(int) hash & _mask] =
+            hash & ~SCORE_MASK | score & SCORE_MASK;
+    }
+
+    /** Return the score field of ENTRY (as from probe). */
+    static int score(long entry) {
+        return (int) entry;
+    }
+
+    /** Remove all entries, and reset the statistics. */
+    void clear() {
+        Arrays.fill(_table, 0);
+        _probes.reset();
+        _hits.reset();
+    }
+
+    /** Return the number of entries the cache can hold. */
+    int capacity() {
+        return _table.length;
+    }
+
+    /** Return the number of probes since the cache was created or
+     *  cleared. */
+    long probes() {
+        return _probes.sum();
+    }
+
+    /** Return the number of those probes that found their position. */
+    long hits() {
+        return _hits.sum();
+    }
+
+    /** Return the fraction of probes that hit (0 if there were none). */
+    double hitRate() {
+        long probes = probes();
+        return probes == 0 ? 0.0 : (double) hits() / probes;
+    }
+
+    /** Layout of an entry: the score in the low 32 bits, and the high 32
+     *  bits of the hash above it.  (A position whose entry would be 0 is
+     *  in effect never cached.) */
+    private static final int CHECK_SHIFT = 32;
+    /** Mask for the score field. */
+    private static final long SCORE_MASK = 0xffffffffL;
+    /** Largest number of entries. */
+    private static final int MAX_ENTRIES = 1 << 27;
+
+    /** The entries: (hash check, score). */
+    private final long[] _table;
+    /** Mask selecting an entry number from a hash. */
+    private final int _mask;
+    /** Counts of probes and of hits. */
+    private final LongAdder _probes = new LongAdder(),
+        _hits = new LongAdder();
+}
@@ -0,0 +1,157 @@
+package amazons;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static amazons.Piece.*;
+import static amazons.Utils.error;
+
+/** The tables that depend only on the size of a board, shared by all
+ *  Boards of that size: queen-move lines, king-move neighbors, Zobrist
+ *  keys, and the initial placement of the queens.  There is one
+ *  Geometry per supported size, created when first needed.
+ *  @author Frederick Fan
+ */
+final class Geometry {
+
+    /** Return the Geometry of a SIZE x SIZE board. */
+    static Geometry forSize(int size) {
+        if (size < Square.MIN_SIZE || size > Square.MAX_SIZE) {
+            throw error("board size must be between %d and %d",
+                        Square.MIN_SIZE, Square.MAX_SIZE);
+        }
+        Geometry result = GEOMETRIES[size];
+        if (result == null) {
+            synchronized (GEOMETRIES) {
+                result = GEOMETRIES[size];
+                if (result == null) {
+                    result = GEOMETRIES[size] = new Geometry(size);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** The tables for a SIZE x SIZE board. */
+    private Geometry(int size) {
+        _size = size;
+        _words = Bits.words(size * size);
+        _lines = new Lines(size);
+        _maxReach = 4 * (size - 1);
+
+        _adjacent = new long[size * size][_words];
+        _neighbors = new int[size * size][];
+        int[] neighbors = new int[Square.dir().length];
+        for (int k = 0; k < size * size; k += 1) {
+            int n = 0;
+            for (int[] d : Square.dir()) {
+                int col = k % size + d[0], row = k / size + d[1];
+                if (Square.exists(size, col, row)) {
+                    Bits.set(_adjacent[k], row * size + col);
+                    neighbors[n] = row * size + col;
+                    n += 1;
+                }
+            }
+            _neighbors[k] = Arrays.copyOf(neighbors, n);
+        }
+
+        Random keys = new Random(ZOBRIST_SEED + size);
+        _zobrist = new long[3 * size * size];
+        for (int i = 0; i < _zobrist.length; i += 1) {
+            _zobrist[i] = keys.nextLong();
+        }
+        _zobristBlackToMove = keys.nextLong();
+
+        int near = (size - 1) / 3, far = size - 1 - near;
+        _initialWhite = new int[] {
+            near, far, near * size, near * size + size - 1
+        };
+        _initialBlack = new int[] {
+            (size - 1) * size + near, (size - 1) * size + far,
+            far * size, far * size + size - 1
+        };
+    }
+
+    /** Return the number of squares on a side. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the number of longs in a bitboard of this size. */
+    int words() {
+        return _words;
+    }
+
+    /** Return the queen-move line tables. */
+    Lines lines() {
+        return _lines;
+    }
+
+    /** Return an upper bound on the number of squares reachable by a
+     *  queen move from any one square. */
+    int maxReach() {
+        return _maxReach;
+    }
+
+    /** Return the bitboard of the squares a king move away from the
+     *  square with index K.  The caller must not modify it. */
+    long[] adjacent(int k) {
+        return _adjacent[k];
+    }
+
+    /** Return the indices of the squares a king move away from the
+     *  square with index K.  The caller must not modify the result. */
+    int[] neighbors(int k) {
+        return _neighbors[k];
+    }
+
+    /** Return the Zobrist key for piece P (WHITE, BLACK, or SPEAR) on
+     *  the square with index K. */
+    long zobrist(Piece p, int k) {
+        return _zobrist[(p.ordinal() - 1) * _size * _size + k];
+    }
+
+    /** Return the Zobrist key included in a hash when BLACK is to
+     *  move. */
+    long zobristBlackToMove() {
+        return _zobristBlackToMove;
+    }
+
+    /** Return the indices of the squares of SIDE's queens in the initial
+     *  position.  On a standard board these are d1, g1, a4, and j4 for
+     *  WHITE, and their mirror images for BLACK.  The caller must not
+     *  modify the result. */
+    int[] initialQueens(Piece side) {
+        return side == WHITE ? _initialWhite : _initialBlack;
+    }
+
+    /** Seed for the generator of Zobrist keys.  Keys are generated from
+     *  a fixed seed so that hashes are reproducible from run to run and
+     *  can be stored. */
+    private static final long ZOBRIST_SEED = 0x616d617a6f6e73L;
+
+    /** The Geometry of each size, indexed by size, or null if not yet
+     *  created. */
+    private static final Geometry[] GEOMETRIES =
+        new Geometry[Square.MAX_SIZE + 1];
+
+    /** Number of squares on a side. */
+    private final int _size;
+    /** Number of longs in a bitboard. */
+    private final int _words;
+    /** Queen-move line tables. */
+    private final Lines _lines;
+    /** Bound on the number of squares reachable from one square. */
+    private final int _maxReach;
+    /** King-move neighbors of each square, as bitboards. */
+    private final long[][] _adjacent;
+    /** King-move neighbors of each square, as lists of indices. */
+    private final int[][] _neighbors;
+    /** Zobrist keys for each non-empty piece kind on each square, in
+     *  the order WHITE, BLACK, SPEAR. */
+    private final long[] _zobrist;
+    /** Zobrist key for BLACK to move. */
+    private final long _zobristBlackToMove;
+    /** Initial queen squares. */
+    private final int[] _initialWhite, _initialBlack;
+}
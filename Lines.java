@@ -0,0 +1,124 @@
+package amazons;
+
+import java.util.Arrays;
+
+/** Precomputed queen-move tables for a square board.  Every square lies
+ *  on four lines: its row, its column, its diagonal, and its
+ *  antidiagonal.  A Board keeps the occupancy of each line as a small
+ *  bit mask with one bit per position along the line, so that the
+ *  squares a queen can reach along a line are a single table lookup
+ *  indexed by the queen's position and that mask, in the manner of
+ *  rotated bitboards.  Positions along rows and both kinds of diagonal
+ *  are column numbers; positions along columns are row numbers.
+ *  Positions a diagonal does not pass through are permanently marked as
+ *  occupied (see fill), so one table serves lines of every length.
+ *  @author Frederick Fan
+ */
+final class Lines {
+
+    /** Number of lines through each square. */
+    static final int TYPES = 4;
+
+    /** Line types, in the order used by line and pos. */
+    static final int ROW = 0, COLUMN = 1, DIAGONAL = 2, ANTIDIAGONAL = 3;
+
+    /** Tables for a SIZE x SIZE board. */
+    Lines(int size) {
+        _size = size;
+        _count = 6 * size - 2;
+        _line = new int[size * size * TYPES];
+        _pos = new int[size * size * TYPES];
+        _square = new int[_count * size];
+        _fill = new int[_count];
+        _slide = new int[size << size];
+
+        Arrays.fill(_square, -1);
+        Arrays.fill(_fill, (1 << size) - 1);
+        for (int row = 0; row < size; row += 1) {
+            for (int col = 0; col < size; col += 1) {
+                int k = row * size + col;
+                setLine(k, ROW, row, col);
+                setLine(k, COLUMN, size + col, row);
+                setLine(k, DIAGONAL, 2 * size + col - row + size - 1, col);
+                setLine(k, ANTIDIAGONAL, 4 * size - 1 + col + row, col);
+            }
+        }
+
+        for (int p = 0; p < size; p += 1) {
+            for (int occ = 0; occ < 1 << size; occ += 1) {
+                int reach = 0;
+                for (int i = p + 1; i < size && (occ & (1 << i)) == 0;
+                     i += 1) {
+                    reach |= 1 << i;
+                }
+                for (int i = p - 1; i >= 0 && (occ & (1 << i)) == 0;
+                     i -= 1) {
+                    reach |= 1 << i;
+                }
+                _slide[(p << size) | occ] = reach;
+            }
+        }
+    }
+
+    /** Record that the square with index K lies on line LINE, which
+     *  has type TYPE, at position POS. */
+    private void setLine(int k, int type, int line, int pos) {
+        _line[k * TYPES + type] = line;
+        _pos[k * TYPES + type] = pos;
+        _square[line * _size + pos] = k;
+        _fill[line] &= ~(1 << pos);
+    }
+
+    /** Return the number of squares on a side of my board. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the number of distinct lines on my board. */
+    int count() {
+        return _count;
+    }
+
+    /** Return the line of type TYPE through the square with index K. */
+    int line(int k, int type) {
+        return _line[k * TYPES + type];
+    }
+
+    /** Return the position of the square with index K along its line of
+     *  type TYPE. */
+    int pos(int k, int type) {
+        return _pos[k * TYPES + type];
+    }
+
+    /** Return the index of the square at position POS on LINE.  POS
+     *  must be a position LINE passes through. */
+    int square(int line, int pos) {
+        return _square[line * _size + pos];
+    }
+
+    /** Return the set of positions reachable along LINE from position
+     *  POS, given that OCC is the set of occupied positions on LINE.
+     *  The square at POS itself is never included, and its bit in OCC
+     *  is ignored. */
+    int reach(int line, int pos, int occ) {
+        return _slide[(pos << _size) | occ | _fill[line]];
+    }
+
+    /** Number of squares on a side. */
+    private final int _size;
+    /** Number of lines. */
+    private final int _count;
+    /** Line of each type through each square, indexed by
+     *  square * TYPES + type. */
+    private final int[] _line;
+    /** Position of each square along each of its lines, indexed like
+     *  _line. */
+    private final int[] _pos;
+    /** Square at each position of each line (or -1), indexed by
+     *  line * _size + pos. */
+    private final int[] _square;
+    /** Positions that each line does not pass through. */
+    private final int[] _fill;
+    /** Reachable positions, indexed by (pos << _size) | occupied. */
+    private final int[] _slide;
+}
@@ -5,6 +5,8 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 
 import static amazons.Utils.error;
 
@@ -15,17 +17,54 @@ import ucb.util.CommandArgs;
  */
 public class Main {
 
-    /** The main program.  ARGS may contain the option --display. */
+    /** The main program.  ARGS may contain the option --display,
+     *  --hash=MB to set the size of the AI's transposition table (or of
+     *  the Monte Carlo player's trees), --evalcache=MB to set the size of
+     *  the AI's evaluation cache, --threads=N to set the number of
+     *  threads the automated players search with, --mcts to have the
+     *  automated players use Monte Carlo tree search (see MonteCarlo)
+     *  rather than alpha-beta search, --ponder to have the alpha-beta
+     *  players search on their opponents' time, --book=FILE to have them
+     *  play from the opening book in FILE (see OpeningBook),
+     *  --tablebase=FILE to have them use the endgame tablebase in FILE
+     *  (see Tablebase), --stats to have them print statistics of their
+     *  searches on the standard error after each move, --perft=DEPTH to
+     *  count the positions DEPTH moves from the start instead of playing,
+     *  or --makebook=FILE or --maketablebase=FILE to build an opening
+     *  book or a tablebase into FILE instead of playing. */
     public static void main(String... args) {
 
         CommandArgs options =
-            new CommandArgs("--display --log={0,1} --={0,2}", args);
+            new CommandArgs("--display --log={0,1} --perft=(\\d+){0,1}"
+                            + " --hash=(\\d+){0,1} --evalcache=(\\d+){0,1}"
+                            + " --threads=(\\d+){0,1}"
+                            + " --mcts --ponder --stats --book={0,1}"
+                            + " --makebook={0,1} --tablebase={0,1}"
+                            + " --maketablebase={0,1} --={0,2}", args);
         if (!options.ok()) {
             System.err.println("Usage: java amazons.Main [--display]"
-                               + " [--log=FILE] [INPUT [OUTPUT]]");
+                               + " [--log=FILE] [--perft=DEPTH] [--hash=MB]"
+                               + " [--evalcache=MB] [--threads=N] [--mcts]"
+                               + " [--ponder] [--stats] [--book=FILE]"
+                               + " [--makebook=FILE] [--tablebase=FILE]"
+                               + " [--maketablebase=FILE]"
+                               + " [INPUT [OUTPUT]]");
             System.exit(1);
         }
 
+        if (options.contains("--perft")) {
+            perft(Integer.parseInt(options.getFirst("--perft")));
+            System.exit(0);
+        }
+        if (options.contains("--makebook")) {
+            makeBook(options.getFirst("--makebook"));
+            System.exit(0);
+        }
+        if (options.contains("--maketablebase")) {
+            makeTablebase(options.getFirst("--maketablebase"));
+            System.exit(0);
+        }
+
         List<String> files = options.get("--");
         if (!files.isEmpty()) {
             try {
@@ -54,6 +93,41 @@ public class Main {
 
     }
 
+    /** Print the perft counts (see Perft) to DEPTH from the initial
+     *  position, using all available processors. */
+    private static void perft(int depth) {
+        if (depth < 1) {
+            System.err.println("Perft depth must be positive");
+            System.exit(1);
+        }
+        Perft perft = new Perft(new Board(), depth);
+        perft.run(new ForkJoinPool());
+        perft.report(System.out);
+    }
+
+    /** Build an opening book (see BookBuilder) from the initial position
+     *  into the file named NAME, using all available processors. */
+    private static void makeBook(String name) {
+        BookBuilder builder =
+            new BookBuilder(new AI(), BookBuilder.DEFAULT_PLIES,
+                            BookBuilder.DEFAULT_WIDTH,
+                            BookBuilder.DEFAULT_DEPTH);
+        builder.build(new Board());
+        builder.write(name);
+        System.out.printf("Wrote %d book moves to %s%n", builder.size(),
+                          name);
+    }
+
+    /** Build an endgame tablebase (see TablebaseBuilder) into the file
+     *  named NAME, using all available processors. */
+    private static void makeTablebase(String name) {
+        TablebaseBuilder builder =
+            new TablebaseBuilder(TablebaseBuilder.DEFAULT_SQUARES);
+        builder.build(new ForkJoinPool());
+        builder.write(name);
+        System.out.printf("Wrote %d regions to %s%n", builder.size(), name);
+    }
+
     /** Return an appropriate Controller as indicated by OPTIONS. */
     private static Controller getController(CommandArgs options) {
         Player manualPlayer;
@@ -83,6 +157,37 @@ public class Main {
             }
         }
 
-        return new Controller(view, log, reporter, manualPlayer, new AI());
+        int tableSize = AI.DEFAULT_TABLE_SIZE;
+        if (options.contains("--hash")) {
+            tableSize = Integer.parseInt(options.getFirst("--hash"));
+        }
+        int cacheSize = AI.DEFAULT_CACHE_SIZE;
+        if (options.contains("--evalcache")) {
+            cacheSize = Integer.parseInt(options.getFirst("--evalcache"));
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (options.contains("--threads")) {
+            threads = Math.max(1,
+                               Integer.parseInt(options.getFirst("--threads")));
+        }
+
+        AI ai = new AI(tableSize, cacheSize, threads,
+                       options.contains("--ponder"));
+        if (options.contains("--book")) {
+            ai.setBook(new OpeningBook(options.getFirst("--book")));
+        }
+        ai.setStats(options.contains("--stats"));
+        if (options.contains("--tablebase")) {
+            ai.setTablebase(new Tablebase(options.getFirst("--tablebase")));
+        }
+        int mctsSize = tableSize, mctsThreads = threads;
+        Supplier<Player> mcts = () -> new MonteCarlo(mctsSize, mctsThreads);
+        Player auto = ai;
+        if (options.contains("--mcts")) {
+            Player template = mcts.get();
+            auto = template;
+            mcts = () -> template;
+        }
+        return new Controller(view, log, reporter, manualPlayer, auto, mcts);
     }
 }
@@ -0,0 +1,427 @@
+package amazons;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static amazons.Piece.*;
+
+/** A Player that chooses moves by Monte Carlo tree search (UCT), an
+ *  alternative to the alpha-beta search of AI that copes better with
+ *  the huge number of moves early in the game.  Each iteration walks
+ *  down the tree (see MonteCarloTree) from the current position,
+ *  choosing at each node the child with the best upper confidence bound
+ *  on its winning rate, adds the children of the node it ends at once
+ *  that has been visited often enough, finishes the game with random
+ *  moves (a playout), and counts the result at every node on its path.
+ *  The move played is the most visited.
+ *
+ *  The tree has one level per half-move, so that queen moves and spear
+ *  throws are chosen separately.  Playouts end as soon as no region is
+ *  contested, when the side with more territory is taken to win.
+ *  Several workers can share a tree, each on its own board; each
+ *  counts a virtual loss at the nodes on its path until its playout is
+ *  done, steering the others elsewhere.  Neither walks nor playouts
+ *  allocate anything.  After a move, the subtree of the position the
+ *  opponent's reply leads to is kept for the next search.
+ *  @author Frederick Fan
+ */
+class MonteCarlo extends Player {
+
+    /** A new MonteCarlo player with no piece or controller (intended to
+     *  produce a template) whose trees occupy about MEGABYTES megabytes,
+     *  and that searches using THREADS threads.  The players it creates
+     *  share the threads. */
+    MonteCarlo(int megabytes, int threads) {
+        this(null, null, megabytes,
+             threads > 1 ? new ForkJoinPool(threads) : null);
+    }
+
+    /** A new MonteCarlo player playing PIECE under control of CONTROLLER,
+     *  whose trees occupy about MEGABYTES megabytes, running one worker
+     *  per thread of POOL, or one worker on the calling thread if POOL
+     *  is null. */
+    MonteCarlo(Piece piece, Controller controller, int megabytes,
+               ForkJoinPool pool) {
+        super(piece, controller);
+        _megabytes = megabytes;
+        _pool = pool;
+    }
+
+    @Override
+    Player create(Piece piece, Controller controller) {
+        return new MonteCarlo(piece, controller, _megabytes, _pool);
+    }
+
+    @Override
+    String myMove() {
+        long start = System.currentTimeMillis();
+        Board b = Board.scratchCopy(board());
+        long share = AI.timeShare(_controller, b);
+        int move = -1;
+        if (Endgame.isSettled(b)) {
+            move = _endgame.bestMove(b, start + share / 2);
+            if (!_endgame.isExact()) {
+                move = -1;
+            }
+        }
+        if (move < 0) {
+            move = findMove(b, start + share);
+        }
+        _controller.chargeTime(System.currentTimeMillis() - start);
+        Move result = Move.mv(b.size(), move);
+        _controller.reportMove(result);
+        return result.toString();
+    }
+
+    /** Return the most visited move (packed as by Move.code) for the side
+     *  to move on BOARD, which must have a move, after searching until
+     *  time DEADLINE (from System.currentTimeMillis).  The search
+     *  continues the one from the last call if BOARD is the position it
+     *  chose, followed by one more move.  BOARD is not changed. */
+    int findMove(Board board, long deadline) {
+        setRoot(board);
+        _reusedVisits = _tree.visits(0);
+        if (_workers == null || _workers[0]._board.size() != board.size()) {
+            _workers = new Worker[_pool == null ? 1 : _pool.getParallelism()];
+            for (int i = 0; i < _workers.length; i += 1) {
+                _workers[i] = new Worker(board.size(), seed() + i);
+            }
+        }
+        for (Worker worker : _workers) {
+            worker.start(board, deadline);
+        }
+        if (_pool == null) {
+            _workers[0].run();
+        } else {
+            ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[_workers.length];
+            for (int i = 0; i < tasks.length; i += 1) {
+                tasks[i] = ForkJoinTask.adapt(_workers[i]);
+            }
+            _pool.invoke(ForkJoinTask.adapt(
+                () -> ForkJoinTask.invokeAll(tasks)));
+        }
+        _playouts = 0;
+        for (Worker worker : _workers) {
+            _playouts += worker._playouts;
+        }
+
+        int queenMove = mostVisited(0);
+        Board after = new Board(board);
+        after.makeQueenMove(Move.codeFrom(_tree.step(queenMove)),
+                            Move.codeTo(_tree.step(queenMove)));
+        int spear = mostVisited(queenMove);
+        if (spear < 0) {
+            int[] spears = new int[after.maxReach()];
+            after.spearThrows(spears);
+            after.throwSpear(spears[0]);
+        } else {
+            after.throwSpear(_tree.step(spear));
+        }
+        _chosenNode = spear;
+        _chosenHash = after.hash();
+        _chosenMoves = after.numMoves();
+        return after.lastMove();
+    }
+
+    /** Return the number of playouts done by the last findMove. */
+    long playouts() {
+        return _playouts;
+    }
+
+    /** Return the number of visits to the root carried over from the
+     *  previous search by the last findMove. */
+    int reusedVisits() {
+        return _reusedVisits;
+    }
+
+    /** Make the root of my tree the position on BOARD, keeping what the
+     *  last search learned about it if BOARD is the position it chose
+     *  followed by one move. */
+    private void setRoot(Board board) {
+        if (_tree == null) {
+            int capacity =
+                (int) Math.min(((long) _megabytes << 20) / (2 * NODE_BYTES),
+                               MAX_NODES);
+            _tree = new MonteCarloTree(Math.max(capacity, MIN_NODES));
+            _spareTree = new MonteCarloTree(Math.max(capacity, MIN_NODES));
+        }
+        int root = replyNode(board);
+        if (root < 0) {
+            _tree.clear();
+        } else {
+            _spareTree.copySubtree(_tree, root);
+            MonteCarloTree tree = _tree;
+            _tree = _spareTree;
+            _spareTree = tree;
+        }
+        _chosenNode = -1;
+    }
+
+    /** Return the node of my tree for the position on BOARD, if that is
+     *  the one chosen by the last search followed by one move, or -1 if
+     *  there is no such node. */
+    private int replyNode(Board board) {
+        if (_chosenNode < 0 || board.numMoves() != _chosenMoves + 1) {
+            return -1;
+        }
+        Board before = new Board(board);
+        before.undo();
+        if (before.hash() != _chosenHash) {
+            return -1;
+        }
+        int reply = board.lastMove();
+        int queenMove = child(_chosenNode,
+                              Move.code(Move.codeFrom(reply),
+                                        Move.codeTo(reply), 0));
+        return queenMove < 0 ? -1 : child(queenMove, Move.codeSpear(reply));
+    }
+
+    /** Return the child of node K of my tree whose half-move is STEP, or
+     *  -1 if there is none. */
+    private int child(int k, int step) {
+        int first = _tree.firstChild(k);
+        for (int c = first; first >= 0 && c < first + _tree.childCount(k);
+             c += 1) {
+            if (_tree.step(c) == step) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the most visited child of node K of my tree, or -1 if it
+     *  has no children. */
+    private int mostVisited(int k) {
+        int first = _tree.firstChild(k);
+        int best = -1;
+        for (int c = first; first >= 0 && c < first + _tree.childCount(k);
+             c += 1) {
+            if (best < 0 || _tree.visits(c) > _tree.visits(best)) {
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /** Return a seed for the random number generators of my workers. */
+    private long seed() {
+        return _controller == null ? System.nanoTime()
+            : _controller.randInt(Integer.MAX_VALUE);
+    }
+
+    /** A searcher sharing my tree, with its own board and buffers. */
+    private class Worker implements Runnable {
+
+        /** A worker for boards with SIZE squares on a side whose random
+         *  numbers start from SEED. */
+        Worker(int size, long seed) {
+            _board = new Board(size);
+            _random = seed == 0 ? 1 : seed;
+            int squares = size * size;
+            _path = new int[2 * squares + 1];
+            _movers = new Piece[2 * squares + 1];
+            _steps = new int[4 * _board.maxReach()];
+            _spears = new int[_board.maxReach()];
+        }
+
+        /** Prepare to search from BOARD until DEADLINE. */
+        void start(Board board, long deadline) {
+            _board.copy(board);
+            _deadline = deadline;
+            _playouts = 0;
+        }
+
+        @Override
+        public void run() {
+            do {
+                iterate();
+                _playouts += 1;
+            } while (_playouts % CLOCK_INTERVAL != 0
+                     || System.currentTimeMillis() < _deadline);
+        }
+
+        /** Walk down the tree from the root, expand, do a playout, and
+         *  record its result along the path, leaving my board as it
+         *  was. */
+        private void iterate() {
+            MonteCarloTree tree = _tree;
+            int node = 0, depth = 0, moves = 0;
+            boolean pending = false;
+            _path[0] = 0;
+            tree.addVirtualLoss(0, VIRTUAL_LOSS);
+            while (pending || _board.winner() == null) {
+                int first = tree.firstChild(node);
+                if (first == MonteCarloTree.UNEXPANDED
+                    && (node == 0 || tree.visits(node)
+                        >= EXPANSION_VISITS + VIRTUAL_LOSS)) {
+                    first = expand(tree, node, pending);
+                }
+                if (first < 0) {
+                    break;
+                }
+                Piece mover = _board.turn();
+                node = select(tree, node, first);
+                depth += 1;
+                _path[depth] = node;
+                _movers[depth] = mover;
+                tree.addVirtualLoss(node, VIRTUAL_LOSS);
+                int step = tree.step(node);
+                if (pending) {
+                    _board.throwSpear(step);
+                    moves += 1;
+                } else {
+                    _board.makeQueenMove(Move.codeFrom(step),
+                                         Move.codeTo(step));
+                }
+                pending = !pending;
+            }
+            if (pending) {
+                _board.spearThrows(_spears);
+                _board.throwSpear(_spears[0]);
+                moves += 1;
+            }
+            int start = _board.numMoves();
+            Piece winner = playout();
+            moves += _board.numMoves() - start;
+            for (int i = 0; i < moves; i += 1) {
+                _board.undo();
+            }
+            for (int d = 0; d <= depth; d += 1) {
+                tree.update(_path[d], VIRTUAL_LOSS,
+                            d > 0 && _movers[d] == winner);
+            }
+        }
+
+        /** Give NODE of TREE, whose position is on my board, its children
+         *  (spear throws if PENDING, otherwise queen moves), and return
+         *  its first child as for MonteCarloTree.firstChild. */
+        private int expand(MonteCarloTree tree, int node, boolean pending) {
+            int n = pending ? _board.spearThrows(_steps)
+                : _board.queenMoves(_board.turn(), _steps);
+            return tree.expand(node, _steps, n);
+        }
+
+        /** Return the child of NODE of TREE, whose children start at
+         *  FIRST, with the greatest upper confidence bound on its
+         *  winning rate.  Unvisited children come first. */
+        private int select(MonteCarloTree tree, int node, int first) {
+            double logVisits = Math.log(Math.max(tree.visits(node), 1));
+            int best = first;
+            double bestBound = -1;
+            for (int c = first; c < first + tree.childCount(node);
+                 c += 1) {
+                int visits = tree.visits(c);
+                if (visits == 0) {
+                    return c;
+                }
+                double bound = (double) tree.wins(c) / visits
+                    + EXPLORATION * Math.sqrt(logVisits / visits);
+                if (bound > bestBound) {
+                    bestBound = bound;
+                    best = c;
+                }
+            }
+            return best;
+        }
+
+        /** Finish the game on my board with random moves, and return the
+         *  winner.  Once no region is contested, the side with more
+         *  territory wins, or the side not to move if it is a tie. */
+        private Piece playout() {
+            while (_board.winner() == null) {
+                if (Endgame.isSettled(_board)) {
+                    return territoryWinner();
+                }
+                int n = _board.queenMoves(_board.turn(), _steps);
+                int step = _steps[random(n)];
+                _board.makeQueenMove(Move.codeFrom(step), Move.codeTo(step));
+                n = _board.spearThrows(_spears);
+                _board.throwSpear(_spears[random(n)]);
+            }
+            return _board.winner();
+        }
+
+        /** Return the side with more empty squares in its own regions
+         *  on my board, in which no region is contested, or the side
+         *  not to move if they have the same. */
+        private Piece territoryWinner() {
+            int white = 0, black = 0;
+            for (int r = 0; r < _board.regionCount(); r += 1) {
+                int area = _board.emptySquares(_board.regionSquares(r));
+                if (_board.regionQueens(r, WHITE) > 0) {
+                    white += area;
+                } else if (_board.regionQueens(r, BLACK) > 0) {
+                    black += area;
+                }
+            }
+            Piece turn = _board.turn();
+            int mine = turn == WHITE ? white : black,
+                theirs = turn == WHITE ? black : white;
+            return mine > theirs ? turn : turn.opponent();
+        }
+
+        /** Return a random integer in 0 .. N-1, for N > 0. */
+        private int random(int n) {
+            _random ^= _random << 13;
+            _random ^= _random >>> 7;
+            _random ^= _random << 17;
+            return (int) ((_random >>> 33) % n);
+        }
+
+        /** My copy of the position being searched. */
+        private final Board _board;
+        /** State of my xorshift random number generator (never 0). */
+        private long _random;
+        /** The nodes on the path of the current iteration. */
+        private final int[] _path;
+        /** The side that made the half-move of each node of _path. */
+        private final Piece[] _movers;
+        /** Buffers for queen moves or spear throws, and spear throws. */
+        private final int[] _steps, _spears;
+        /** Time at which to stop searching. */
+        private long _deadline;
+        /** Number of playouts in the current search. */
+        private long _playouts;
+    }
+
+    /** Approximate bytes of storage per tree node. */
+    private static final int NODE_BYTES = 24;
+    /** Least and greatest numbers of nodes in a tree. */
+    private static final int MIN_NODES = 1 << 12, MAX_NODES = 1 << 26;
+    /** Visits a node must have had before it gets children. */
+    private static final int EXPANSION_VISITS = 2;
+    /** Virtual visits added to each node on a worker's path. */
+    private static final int VIRTUAL_LOSS = 3;
+    /** Weight of the exploration term of the upper confidence bound. */
+    private static final double EXPLORATION = 0.7;
+    /** Number of playouts between readings of the clock. */
+    private static final int CLOCK_INTERVAL = 16;
+
+    /** Analyzer for positions whose regions are all settled. */
+    private final Endgame _endgame = new Endgame(AI.ENDGAME_NODES);
+
+    /** Approximate storage for my two trees, in megabytes. */
+    private final int _megabytes;
+    /** Threads for parallel search, shared with the other players
+     *  created from the same template, or null if searching only on
+     *  the calling thread. */
+    private final ForkJoinPool _pool;
+    /** The tree being searched, and a spare of the same capacity into
+     *  which the subtree to be kept is copied after each move.  Both are
+     *  allocated on first use. */
+    private MonteCarloTree _tree, _spareTree;
+    /** My workers, allocated on first use. */
+    private Worker[] _workers;
+    /** The node of the position after the move chosen by the last
+     *  search, or -1 if none. */
+    private int _chosenNode = -1;
+    /** Hash of the position after the move chosen by the last search. */
+    private long _chosenHash;
+    /** Number of moves made in the position after the move chosen by
+     *  the last search. */
+    private int _chosenMoves;
+    /** Playouts done by the last search. */
+    private long _playouts;
+    /** Visits to the root carried over by the last search. */
+    private int _reusedVisits;
+}
@@ -0,0 +1,172 @@
+package amazons;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/** The game tree of a MonteCarlo player, stored in arrays indexed by
+ *  node number rather than as node objects, so that a tree of millions
+ *  of nodes costs a few words per node and nothing to the garbage
+ *  collector.  Node 0 is the root.  Each node stands for one half of a
+ *  move (see Board.makeQueenMove): a queen move (packed as by Move.code
+ *  with a spear of 0) or a spear throw (the index of its square).  The
+ *  children of a node occupy consecutive numbers.
+ *
+ *  Any number of threads may walk and update the tree at once.  Visit
+ *  and win counts are updated atomically, and a node is expanded by
+ *  the one thread that claims it, which fills in its children before
+ *  publishing them.  Once its storage is used up, a tree simply stops
+ *  growing.
+ *  @author Frederick Fan
+ */
+final class MonteCarloTree {
+
+    /** Values of firstChild for a node that has not been expanded, that
+     *  is being expanded by some thread, or that cannot be expanded for
+     *  lack of space. */
+    static final int UNEXPANDED = -1, EXPANDING = -2, FULL = -3;
+
+    /** An empty tree with room for CAPACITY nodes. */
+    MonteCarloTree(int capacity) {
+        _step = new int[capacity];
+        _childCount = new int[capacity];
+        _firstChild = new AtomicIntegerArray(capacity);
+        _visits = new AtomicIntegerArray(capacity);
+        _wins = new AtomicIntegerArray(capacity);
+        _source = new int[capacity];
+        clear();
+    }
+
+    /** Make me a tree holding only an unvisited root. */
+    void clear() {
+        initNode(0, 0);
+        _size.set(1);
+    }
+
+    /** Make me a copy of the subtree of FROM, a tree of the same
+     *  capacity, rooted at its node ROOT, which becomes my root. */
+    void copySubtree(MonteCarloTree from, int root) {
+        initNode(0, 0);
+        copyCounts(from, root, 0);
+        _source[0] = root;
+        int size = 1;
+        for (int k = 0; k < size; k += 1) {
+            int old = _source[k], oldFirst = from.firstChild(old);
+            if (oldFirst < 0) {
+                continue;
+            }
+            int n = from.childCount(old);
+            for (int c = 0; c < n; c += 1) {
+                initNode(size + c, from.step(oldFirst + c));
+                copyCounts(from, oldFirst + c, size + c);
+                _source[size + c] = oldFirst + c;
+            }
+            _childCount[k] = n;
+            _firstChild.set(k, size);
+            size += n;
+        }
+        _size.set(size);
+    }
+
+    /** Set node K to an unexpanded, unvisited node for the half-move
+     *  STEP. */
+    private void initNode(int k, int step) {
+        _step[k] = step;
+        _childCount[k] = 0;
+        _visits.set(k, 0);
+        _wins.set(k, 0);
+        _firstChild.set(k, UNEXPANDED);
+    }
+
+    /** Copy the visit and win counts of node OLD of FROM into my node
+     *  K. */
+    private void copyCounts(MonteCarloTree from, int old, int k) {
+        _visits.set(k, from.visits(old));
+        _wins.set(k, from.wins(old));
+    }
+
+    /** Return the number of nodes in use. */
+    int size() {
+        return Math.min(_size.get(), _step.length);
+    }
+
+    /** Return the half-move of node K. */
+    int step(int k) {
+        return _step[k];
+    }
+
+    /** Return the number of the first child of node K, or one of
+     *  UNEXPANDED, EXPANDING, or FULL if its children are not yet
+     *  available. */
+    int firstChild(int k) {
+        return _firstChild.get(k);
+    }
+
+    /** Return the number of children of node K, which must have been
+     *  expanded. */
+    int childCount(int k) {
+        return _childCount[k];
+    }
+
+    /** Return the number of visits to node K, including virtual ones. */
+    int visits(int k) {
+        return _visits.get(k);
+    }
+
+    /** Return the number of visits to node K won by the side that made
+     *  its half-move. */
+    int wins(int k) {
+        return _wins.get(k);
+    }
+
+    /** Give node K the children whose half-moves are STEPS[0 .. N-1],
+     *  unless another thread has already claimed it, and return the
+     *  number of its first child, or a negative value (see firstChild)
+     *  if it has no children after all. */
+    int expand(int k, int[] steps, int n) {
+        if (!_firstChild.compareAndSet(k, UNEXPANDED, EXPANDING)) {
+            return _firstChild.get(k);
+        }
+        int first = _size.getAndAdd(n);
+        if (first + n > _step.length) {
+            _firstChild.set(k, FULL);
+            return FULL;
+        }
+        for (int i = 0; i < n; i += 1) {
+            initNode(first + i, steps[i]);
+        }
+        _childCount[k] = n;
+        _firstChild.set(k, first);
+        return first;
+    }
+
+    /** Add N virtual visits to node K: lost visits that discourage
+     *  other threads from following a path that is being explored until
+     *  its result is known, and that must be taken back by update. */
+    void addVirtualLoss(int k, int n) {
+        _visits.addAndGet(k, n);
+    }
+
+    /** Record a visit to node K, taking back the N virtual visits added
+     *  for it, and count a win if WON. */
+    void update(int k, int n, boolean won) {
+        _visits.addAndGet(k, 1 - n);
+        if (won) {
+            _wins.incrementAndGet(k);
+        }
+    }
+
+    /** Half-move of each node. */
+    private final int[] _step;
+    /** Number of children of each expanded node. */
+    private final int[] _childCount;
+    /** First child of each node (see firstChild). */
+    private final AtomicIntegerArray _firstChild;
+    /** Visit and win counts of each node (see visits and wins). */
+    private final AtomicIntegerArray _visits, _wins;
+    /** Number of node numbers handed out, which may exceed the
+     *  capacity once the tree is full. */
+    private final AtomicInteger _size = new AtomicInteger();
+    /** For copySubtree: the node of the source tree copied into each of
+     *  my nodes. */
+    private final int[] _source;
+}
@@ -9,7 +9,9 @@ import static amazons.Square.SQ;
 /** A move in the game of Amazons. As for Squares, Moves are immutable
  *  and unique: there is only one move object for each possible move
  *  (generated by the factory method  mv, the constructor being private).
- *  As for Squares, you can freely use == to compare Moves.
+ *  As for Squares, you can freely use == to compare Moves.  Moves on
+ *  boards of different sizes are distinct; the factory methods without
+ *  a size argument produce Moves for the standard Board.SIZE board.
  *  @author P. N. Hilfinger
  */
 final class Move {
@@ -38,37 +40,123 @@ final class Move {
         return _spear;
     }
 
-    /** Return the unique Move FROM-TO(SPEAR). */
+    /** Return my packed form (see code(int, int, int)). */
+    int code() {
+        return _code;
+    }
+
+    /** Return the packed form of the move whose from, to, and spear
+     *  squares have indices FROM, TO, and SPEAR.  Packed moves hold one
+     *  square index per byte, from in the low byte, and let move
+     *  generation and search work with plain ints. */
+    static int code(int from, int to, int spear) {
+        return from | (to << BYTE) | (spear << 2 * BYTE);
+    }
+
+    /** Return the index of the square moved from in packed move CODE. */
+    static int codeFrom(int code) {
+        return code & BYTE_MASK;
+    }
+
+    /** Return the index of the square moved to in packed move CODE. */
+    static int codeTo(int code) {
+        return (code >>> BYTE) & BYTE_MASK;
+    }
+
+    /** Return the index of the spear's square in packed move CODE. */
+    static int codeSpear(int code) {
+        return (code >>> 2 * BYTE) & BYTE_MASK;
+    }
+
+    /** Return the unique Move whose packed form is CODE. */
+    static Move mv(int code) {
+        return mv(Board.SIZE, code);
+    }
+
+    /** Return the unique Move whose packed form is CODE on a SIZE x SIZE
+     *  board. */
+    static Move mv(int size, int code) {
+        return mv(Square.sqIndex(size, codeFrom(code)),
+                  Square.sqIndex(size, codeTo(code)),
+                  Square.sqIndex(size, codeSpear(code)));
+    }
+
+    /** Return the unique Move FROM-TO(SPEAR).  The three Squares must
+     *  belong to boards of the same size. */
     static Move mv(Square from, Square to, Square spear) {
-        if (MOVES[from.index()][to.index()][spear.index()] == null) {
-            MOVES[from.index()][to.index()][spear.index()] =
-                new Move(from, to, spear);
+        Move[][][] moves = MOVES[from.size()];
+        if (moves != null) {
+            Move[][] fromMoves = moves[from.index()];
+            if (fromMoves != null) {
+                Move[] toMoves = fromMoves[to.index()];
+                if (toMoves != null && toMoves[spear.index()] != null) {
+                    return toMoves[spear.index()];
+                }
+            }
         }
-        return MOVES[from.index()][to.index()][spear.index()];
+        return intern(from, to, spear);
+    }
+
+    /** Return the unique Move FROM-TO(SPEAR), creating it and the parts
+     *  of MOVES that lead to it if necessary. */
+    private static synchronized Move intern(Square from, Square to,
+                                            Square spear) {
+        int n = from.size() * from.size();
+        if (MOVES[from.size()] == null) {
+            MOVES[from.size()] = new Move[n][][];
+        }
+        Move[][][] moves = MOVES[from.size()];
+        if (moves[from.index()] == null) {
+            moves[from.index()] = new Move[n][];
+        }
+        if (moves[from.index()][to.index()] == null) {
+            moves[from.index()][to.index()] = new Move[n];
+        }
+        Move[] toMoves = moves[from.index()][to.index()];
+        if (toMoves[spear.index()] == null) {
+            toMoves[spear.index()] = new Move(from, to, spear);
+        }
+        return toMoves[spear.index()];
     }
 
     /** Return the Move denoted by STR, if STR denotes a move with
      *  valid syntax in which the piece move and spear throw are proper
      *  queen moves, and null otherwise. */
     static Move mv(String str) {
-        _moveMatcher.reset(str);
-        if (_moveMatcher.matches()) {
-            int k = _moveMatcher.group(1) != null ? 1 : 4;
-            Square from = sq(_moveMatcher.group(k)),
-                to = sq(_moveMatcher.group(k + 1)),
-                spear = sq(_moveMatcher.group(k + 2));
-            if (from.isQueenMove(to) && to.isQueenMove(spear)) {
+        return mv(Board.SIZE, str);
+    }
+
+    /** Return the Move denoted by STR on a SIZE x SIZE board, if STR
+     *  denotes a move with valid syntax in which all squares are on the
+     *  board and the piece move and spear throw are proper queen moves,
+     *  and null otherwise. */
+    static Move mv(int size, String str) {
+        Matcher matcher = MOVE_PATTERN.matcher(str);
+        if (matcher.matches()) {
+            int k = matcher.group(1) != null ? 1 : 4;
+            Square from = square(size, matcher.group(k)),
+                to = square(size, matcher.group(k + 1)),
+                spear = square(size, matcher.group(k + 2));
+            if (from != null && to != null && spear != null
+                && from.isQueenMove(to) && to.isQueenMove(spear)) {
                 return mv(from, to, spear);
             }
         }
         return null;
     }
 
+    /** Return the Square denoted by POSN on a SIZE x SIZE board, or null
+     *  if there is no such square on that board. */
+    private static Square square(int size, String posn) {
+        int col = posn.charAt(0) - 'a',
+            row = Integer.parseInt(posn.substring(1)) - 1;
+        return Square.exists(size, col, row) ? sq(size, col, row) : null;
+    }
+
     /** Return true iff STR has the right format for a Move, ignoring whether
      *  its piece-move and spear-throw are valid queen moves. */
     static boolean isGrammaticalMove(String str) {
-        _moveMatcher.reset(str);
-        return _moveMatcher.matches();
+        return MOVE_PATTERN.matcher(str).matches();
     }
 
     @Override
@@ -79,17 +167,26 @@ final class Move {
     /** Construct the Move FROM-TO(SPEAR). */
     private Move(Square from, Square to, Square spear) {
         _from = from; _to = to; _spear = spear;
+        _code = code(from.index(), to.index(), spear.index());
         _str = String.format("%s-%s(%s)", from, to, spear);
     }
 
-    /** The cache of all Moves created. */
-    private static final Move[][][] MOVES = new Move[100][100][100];
+    /** The cache of all Moves created, indexed by board size and the
+     *  indices of the from, to, and spear squares.  Each level is
+     *  allocated only when first needed. */
+    private static final Move[][][][] MOVES =
+        new Move[Square.MAX_SIZE + 1][][][];
+
+    /** Width in bits of one square index in a packed move. */
+    private static final int BYTE = 8;
+    /** Mask selecting one square index of a packed move. */
+    private static final int BYTE_MASK = (1 << BYTE) - 1;
 
     /** The components of a Move. */
     private final Square _from, _to, _spear;
+    /** My packed form. */
+    private final int _code;
     /** The printed form of a Move. */
-    private String _str;
-    /**  A utility Matcher for moves, using MOVE_PATTERN. */
-    private static Matcher _moveMatcher = MOVE_PATTERN.matcher("");
+    private final String _str;
 }
 
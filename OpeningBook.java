@@ -0,0 +1,140 @@
+package amazons;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static amazons.Utils.error;
+
+/** A book of opening moves, read from a file made by BookBuilder.  The
+ *  file is a sequence of fixed-size records (position hash, move, score,
+ *  count), sorted by hash, so that all the moves recorded for a
+ *  position are together.  The score of a move is its value for the
+ *  side making it, and its count is the number of book positions it
+ *  leads to (a measure of how well the book covers it).
+ *
+ *  The file is mapped into memory rather than read, so that opening a
+ *  book costs nothing in time or heap, and a lookup is a binary search
+ *  that touches only a few pages.  A book is never changed once
+ *  opened, and so may be used by any number of threads at once.
+ *  @author Frederick Fan
+ */
+class OpeningBook {
+
+    /** A book read from the file named NAME. */
+    OpeningBook(String name) {
+        try (FileChannel file = FileChannel.open(Paths.get(name),
+                                                 StandardOpenOption.READ)) {
+            if (file.size() % RECORD_BYTES != 0
+                || file.size() > Integer.MAX_VALUE) {
+                throw error("malformed opening book: %s", name);
+            }
+            _records = file.map(FileChannel.MapMode.READ_ONLY, 0,
+                                file.size());
+            _size = (int) (file.size() / RECORD_BYTES);
+        } catch (IOException excp) {
+            throw error("could not read opening book: %s", name);
+        }
+    }
+
+    /** Return the number of records in the book. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the packed move (see Move.code) the book gives for the
+     *  position whose hash is HASH: the one with the highest score, or
+     *  with the highest count among those with that score.  Returns -1
+     *  if the position is not in the book. */
+    int move(long hash) {
+        int lo = 0, hi = _size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (hash(mid) < hash) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int best = -1;
+        for (int i = lo; i < _size && hash(i) == hash; i += 1) {
+            if (best == -1 || score(i) > score(best)
+                || score(i) == score(best) && count(i) > count(best)) {
+                best = i;
+            }
+        }
+        return best == -1 ? -1 : move(best);
+    }
+
+    /** Return the hash of record #I. */
+    private long hash(int i) {
+        return _records.getLong(i * RECORD_BYTES);
+    }
+
+    /** Return the move of record #I. */
+    private int move(int i) {
+        return _records.getInt(i * RECORD_BYTES + MOVE_OFFSET);
+    }
+
+    /** Return the score of record #I. */
+    private int score(int i) {
+        return _records.getInt(i * RECORD_BYTES + SCORE_OFFSET);
+    }
+
+    /** Return the count of record #I. */
+    private int count(int i) {
+        return _records.getInt(i * RECORD_BYTES + COUNT_OFFSET);
+    }
+
+    /** Write a book file named NAME holding ENTRIES, in any order. */
+    static void write(String name, List<Entry> entries) {
+        ArrayList<Entry> sorted = new ArrayList<>(entries);
+        sorted.sort((x, y) -> Long.compare(x._hash, y._hash));
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(name)))) {
+            for (Entry entry : sorted) {
+                out.writeLong(entry._hash);
+                out.writeInt(entry._move);
+                out.writeInt(entry._score);
+                out.writeInt(entry._count);
+            }
+        } catch (IOException excp) {
+            throw error("could not write opening book: %s", name);
+        }
+    }
+
+    /** One record of a book being written. */
+    static final class Entry {
+
+        /** The record that the move MOVE in the position whose hash is
+         *  HASH has score SCORE and count COUNT. */
+        Entry(long hash, int move, int score, int count) {
+            _hash = hash;
+            _move = move;
+            _score = score;
+            _count = count;
+        }
+
+        /** The position hash. */
+        private final long _hash;
+        /** The packed move, its score, and its count. */
+        private final int _move, _score, _count;
+    }
+
+    /** Layout of a record: the hash, then the move, score, and count, all
+     *  big-endian. */
+    private static final int MOVE_OFFSET = 8, SCORE_OFFSET = 12,
+        COUNT_OFFSET = 16, RECORD_BYTES = 20;
+
+    /** The contents of the book file. */
+    private final ByteBuffer _records;
+    /** The number of records. */
+    private final int _size;
+}
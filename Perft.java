@@ -0,0 +1,141 @@
+package amazons;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static amazons.Utils.error;
+
+/** Move-generator test and benchmark: counts the positions reachable in
+ *  exactly a given number of moves ("perft").  The count is done
+ *  separately for each move from the starting position ("divide"), with
+ *  the root moves shared out among the threads of a ForkJoinPool, each
+ *  working on its own copy of the board.  The last move of each line is
+ *  not made: its positions are counted with Board.countMoves.  Counts
+ *  from the initial position are 2176 at depth 1 and 4,307,152 at
+ *  depth 2 on a standard board.
+ *  @author Frederick Fan
+ */
+class Perft {
+
+    /** A perft of depth DEPTH > 0 from (a copy of) the position on
+     *  BOARD, to be run by run. */
+    Perft(Board board, int depth) {
+        if (depth < 1) {
+            throw error("perft depth must be positive");
+        }
+        _board = new Board(board);
+        _depth = depth;
+        int[] moves = new int[_board.maxMoves(_board.turn())];
+        _rootMoves = Arrays.copyOf(moves,
+                                   _board.legalMoves(_board.turn(), moves));
+        _rootNodes = new long[_rootMoves.length];
+    }
+
+    /** Return the number of positions reachable from BOARD in exactly
+     *  DEPTH moves, counted on the current thread.  BOARD is left as it
+     *  was. */
+    static long count(Board board, int depth) {
+        return count(board, depth, new int[Math.max(depth, 1)][]);
+    }
+
+    /** Return the number of positions reachable from BOARD in exactly
+     *  DEPTH moves, using BUFFERS[DEPTH - 1] (allocated if null) to hold
+     *  the moves at each level. */
+    private static long count(Board board, int depth, int[][] buffers) {
+        if (depth == 0) {
+            return 1;
+        }
+        Piece side = board.turn();
+        if (depth == 1) {
+            return board.countMoves(side);
+        }
+        int[] moves = buffers[depth - 1];
+        if (moves == null || moves.length < board.maxMoves(side)) {
+            moves = buffers[depth - 1] = new int[board.maxMoves(side)];
+        }
+        int numMoves = board.legalMoves(side, moves);
+        long nodes = 0;
+        for (int i = 0; i < numMoves; i += 1) {
+            board.makeMove(moves[i]);
+            nodes += count(board, depth - 1, buffers);
+            board.undo();
+        }
+        return nodes;
+    }
+
+    /** Do the count using the threads of POOL, recording the time
+     *  taken. */
+    void run(ForkJoinPool pool) {
+        long start = System.nanoTime();
+        pool.invoke(new Divide(0, _rootMoves.length));
+        _nanos = System.nanoTime() - start;
+    }
+
+    /** Return the total number of positions counted by run. */
+    long nodes() {
+        long total = 0;
+        for (long n : _rootNodes) {
+            total += n;
+        }
+        return total;
+    }
+
+    /** Print the count for each root move, the total, and the speed of
+     *  the last run on OUT. */
+    void report(PrintStream out) {
+        for (int i = 0; i < _rootMoves.length; i += 1) {
+            out.printf("%s: %d%n", Move.mv(_board.size(), _rootMoves[i]),
+                       _rootNodes[i]);
+        }
+        long nodes = nodes();
+        double seconds = Math.max(_nanos, 1) * 1e-9;
+        out.printf("Moves: %d%nNodes: %d%nTime: %.3f s%nNodes/second: %.0f%n",
+                   _rootMoves.length, nodes, seconds, nodes / seconds);
+    }
+
+    /** The task of counting under root moves #LO through #HI - 1. */
+    private class Divide extends RecursiveAction {
+
+        /** A task for root moves #LO through #HI - 1. */
+        Divide(int lo, int hi) {
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new Divide(_lo, mid), new Divide(mid, _hi));
+                return;
+            }
+            Board board = Board.scratchCopy(_board);
+            int[][] buffers = new int[Math.max(_depth - 1, 1)][];
+            for (int i = _lo; i < _hi; i += 1) {
+                board.makeMove(_rootMoves[i]);
+                _rootNodes[i] = count(board, _depth - 1, buffers);
+                board.undo();
+            }
+        }
+
+        /** The range of root moves. */
+        private final int _lo, _hi;
+
+        /** Serialization version (Divide is Serializable only by
+         *  inheritance, and is never serialized). */
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** The starting position. */
+    private final Board _board;
+    /** Number of moves to look ahead. */
+    private final int _depth;
+    /** The legal moves from _board, packed. */
+    private final int[] _rootMoves;
+    /** Number of positions under each root move. */
+    private final long[] _rootNodes;
+    /** Duration of the last run, in nanoseconds. */
+    private long _nanos;
+}
@@ -35,6 +35,12 @@ abstract class Player {
      *  is not null. */
     abstract String myMove();
 
+    /** Stop any search I am running in the background (as on my
+     *  opponent's time), and wait for it to end.  Called when I am
+     *  replaced or my game ends.  By default, does nothing. */
+    void stopPondering() {
+    }
+
     /** My Controller. */
     protected Controller _controller;
     /** The Piece I play (WHITE or BLACK). */
@@ -0,0 +1,81 @@
+package amazons;
+
+import static amazons.Piece.*;
+import static amazons.Utils.error;
+
+/** A compact binary form for Amazons positions, for archiving large
+ *  numbers of them.  An encoded position is one header byte holding the
+ *  side to move (0 for WHITE, 1 for BLACK) in its low bit and the board
+ *  size in the rest, followed by the contents of the squares in index
+ *  order at two bits per square (the ordinal of the square's Piece),
+ *  packed low bits first.  A standard board encodes in 26 bytes.  Move
+ *  history is not recorded.
+ *  @author Frederick Fan
+ */
+final class PositionCodec {
+
+    /** Number of bits used for one square. */
+    private static final int BITS_PER_SQUARE = 2;
+
+    /** Mask for the bits of a byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** The pieces, indexed by their ordinals. */
+    private static final Piece[] PIECES = Piece.values();
+
+    /** Not instantiable. */
+    private PositionCodec() {
+    }
+
+    /** Return the number of bytes in an encoded position on a board
+     *  with SIZE squares on a side. */
+    static int length(int size) {
+        return 1 + (size * size * BITS_PER_SQUARE + Byte.SIZE - 1)
+            / Byte.SIZE;
+    }
+
+    /** Return the encoding of the position on BOARD. */
+    static byte[] encode(Board board) {
+        byte[] result = new byte[length(board.size())];
+        encode(board, result, 0);
+        return result;
+    }
+
+    /** Store the encoding of the position on BOARD into DEST starting
+     *  at DEST[OFFSET], allocating nothing. */
+    static void encode(Board board, byte[] dest, int offset) {
+        int size = board.size();
+        int n = length(size);
+        for (int i = 0; i < n; i += 1) {
+            dest[offset + i] = 0;
+        }
+        dest[offset] = (byte) ((size << 1) | (board.turn() == WHITE ? 0 : 1));
+        for (int k = 0; k < size * size; k += 1) {
+            int bit = k * BITS_PER_SQUARE;
+            dest[offset + 1 + bit / Byte.SIZE] |=
+                board.get(k % size, k / size).ordinal() << (bit % Byte.SIZE);
+        }
+    }
+
+    /** Set BOARD to the position encoded in SRC, starting at
+     *  SRC[OFFSET], changing its size if necessary.  BOARD's move
+     *  history is cleared. */
+    static void decode(byte[] src, int offset, Board board) {
+        int size = (src[offset] & BYTE_MASK) >>> 1;
+        if (size < Square.MIN_SIZE || size > Square.MAX_SIZE) {
+            throw error("invalid encoded board size: %d", size);
+        }
+        if (src.length - offset < length(size)) {
+            throw error("encoded position too short");
+        }
+        board.init(size);
+        for (int k = 0; k < size * size; k += 1) {
+            int bit = k * BITS_PER_SQUARE;
+            int code = (src[offset + 1 + bit / Byte.SIZE]
+                        >>> (bit % Byte.SIZE)) & ((1 << BITS_PER_SQUARE) - 1);
+            board.put(PIECES[code], k % size, k / size);
+        }
+        board.setTurn((src[offset] & 1) == 0 ? WHITE : BLACK);
+    }
+
+}
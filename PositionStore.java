@@ -0,0 +1,102 @@
+package amazons;
+
+import java.util.Arrays;
+
+/** A set of positions, identified by their 64-bit hashes (see
+ *  Board.hash), that counts how often each has been added.  Uses open
+ *  addressing with linear probing in preallocated arrays, so that adding
+ *  and looking up take constant expected time, nothing is allocated after
+ *  construction, and no Board is retained.  Distinct positions whose
+ *  hashes collide are treated as the same position.
+ *  @author Frederick Fan
+ */
+class PositionStore {
+
+    /** A store with room for at least CAPACITY distinct positions. */
+    PositionStore(int capacity) {
+        int slots = Integer.highestOneBit(Math.max(2, capacity * 4 / 3));
+        while (slots * MAX_LOAD_NUMERATOR / MAX_LOAD_DENOMINATOR < capacity) {
+            slots *= 2;
+        }
+        _keys = new long[slots];
+        _counts = new int[slots];
+        _mask = slots - 1;
+        _limit = slots * MAX_LOAD_NUMERATOR / MAX_LOAD_DENOMINATOR;
+    }
+
+    /** Record one occurrence of the position with hash HASH, and return
+     *  true iff it was not already present. */
+    boolean add(long hash) {
+        int i = slot(hash);
+        if (_counts[i] != 0) {
+            _counts[i] += 1;
+            return false;
+        }
+        if (_size == _limit) {
+            throw new IllegalStateException("position store is full");
+        }
+        _keys[i] = hash;
+        _counts[i] = 1;
+        _size += 1;
+        return true;
+    }
+
+    /** Return true iff the position with hash HASH is present. */
+    boolean contains(long hash) {
+        return count(hash) != 0;
+    }
+
+    /** Return the number of times the position with hash HASH has been
+     *  added. */
+    int count(long hash) {
+        return _counts[slot(hash)];
+    }
+
+    /** Return the number of distinct positions present. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the maximum number of distinct positions I can hold. */
+    int capacity() {
+        return _limit;
+    }
+
+    /** Remove all positions. */
+    void clear() {
+        Arrays.fill(_counts, 0);
+        _size = 0;
+    }
+
+    /** Return the slot holding HASH, or the empty slot where it would
+     *  be added. */
+    private int slot(long hash) {
+        int i = (int) mix(hash) & _mask;
+        while (_counts[i] != 0 && _keys[i] != hash) {
+            i = (i + 1) & _mask;
+        }
+        return i;
+    }
+
+    /** Return HASH with its high bits folded into its low bits, so that
+     *  the slot depends on the whole hash. */
+    private static long mix(long hash) {
+        return hash ^ (hash >>> 32) ^ (hash >>> 17);
+    }
+
+    /** Maximum load factor, as a fraction. */
+    private static final int
+        MAX_LOAD_NUMERATOR = 3, MAX_LOAD_DENOMINATOR = 4;
+
+    /** Position hashes, indexed by slot. */
+    private final long[] _keys;
+    /** Occurrence counts, indexed by slot.  A count of 0 marks an empty
+     *  slot, which is why keys need no reserved value. */
+    private final int[] _counts;
+    /** Number of slots less one. */
+    private final int _mask;
+    /** Maximum number of positions. */
+    private final int _limit;
+    /** Number of positions present. */
+    private int _size;
+}
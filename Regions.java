@@ -0,0 +1,275 @@
+package amazons;
+
+import java.util.Arrays;
+
+/** The regions of a Board: the connected components, under king moves,
+ *  of the squares that do not hold spears.  Queens can never leave their
+ *  region, so once spears have split the board, regions can be judged
+ *  separately, and a region holding the queens of only one side is
+ *  territory that side alone will fill.
+ *
+ *  Regions change only when a spear is thrown, which can split the
+ *  region it lands in, and when that spear is taken back, which undoes
+ *  the split.  A throw is handled by flood filling from the spear's
+ *  neighbors within its region, stopping as soon as they are all found
+ *  to be connected.  A split gives the new regions the next free
+ *  numbers and records how many there were, so that taking the spear
+ *  back (always in reverse order) merges them back without a search.
+ *  Anything else that changes the spears (Board.put) invalidates the
+ *  regions, which are then rebuilt from scratch when next needed.
+ *  @author Frederick Fan
+ */
+final class Regions {
+
+    /** Regions for a board with GEOMETRY, initially invalid. */
+    Regions(Geometry geometry) {
+        int n = geometry.size() * geometry.size();
+        _geometry = geometry;
+        _label = new int[n];
+        _squares = new long[n][geometry.words()];
+        _whiteQueens = new int[n];
+        _blackQueens = new int[n];
+        _splitRegion = new int[n];
+        _splitCount = new int[n];
+        _queue = new int[n];
+        _mark = new int[n];
+        _valid = false;
+    }
+
+    /** Make me a copy of MODEL, which must be for the same geometry. */
+    void copy(Regions model) {
+        _valid = model._valid;
+        if (!_valid) {
+            return;
+        }
+        System.arraycopy(model._label, 0, _label, 0, _label.length);
+        for (int r = 0; r < model._count; r += 1) {
+            System.arraycopy(model._squares[r], 0, _squares[r], 0,
+                             _squares[r].length);
+        }
+        System.arraycopy(model._whiteQueens, 0, _whiteQueens, 0,
+                         model._count);
+        System.arraycopy(model._blackQueens, 0, _blackQueens, 0,
+                         model._count);
+        System.arraycopy(model._splitRegion, 0, _splitRegion, 0,
+                         model._depth);
+        System.arraycopy(model._splitCount, 0, _splitCount, 0,
+                         model._depth);
+        _count = model._count;
+        _depth = model._depth;
+    }
+
+    /** Return true iff my regions are up to date. */
+    boolean isValid() {
+        return _valid;
+    }
+
+    /** Mark my regions as out of date. */
+    void invalidate() {
+        _valid = false;
+    }
+
+    /** Recompute all regions from scratch, given the bitboards of the
+     *  squares holding SPEARS, WHITE queens, and BLACK queens. */
+    void rebuild(long[] spears, long[] white, long[] black) {
+        Arrays.fill(_label, NONE);
+        _count = 0;
+        _depth = 0;
+        for (int k = 0; k < _label.length; k += 1) {
+            if (_label[k] == NONE && !Bits.get(spears, k)) {
+                long[] squares = _squares[_count];
+                Bits.clearAll(squares);
+                _queue[0] = k;
+                _label[k] = _count;
+                Bits.set(squares, k);
+                for (int head = 0, tail = 1; head < tail; head += 1) {
+                    for (int j : _geometry.neighbors(_queue[head])) {
+                        if (_label[j] == NONE && !Bits.get(spears, j)) {
+                            _label[j] = _count;
+                            Bits.set(squares, j);
+                            _queue[tail] = j;
+                            tail += 1;
+                        }
+                    }
+                }
+                countQueens(_count, white, black);
+                _count += 1;
+            }
+        }
+        _valid = true;
+    }
+
+    /** Record that a spear has been thrown to the square with index
+     *  SPEAR, splitting its region if need be.  WHITE and BLACK are the
+     *  bitboards of the queens.  Has no effect if I am not valid. */
+    void addSpear(int spear, long[] white, long[] black) {
+        if (!_valid) {
+            return;
+        }
+        int r = _label[spear];
+        _label[spear] = NONE;
+        Bits.clear(_squares[r], spear);
+
+        int first = _count;
+        for (int start : _geometry.neighbors(spear)) {
+            if (_label[start] != r || !isSplit(r, spear, start)) {
+                continue;
+            }
+            long[] squares = _squares[_count];
+            Bits.clearAll(squares);
+            for (int i = 0; i < _filled; i += 1) {
+                int k = _queue[i];
+                _label[k] = _count;
+                Bits.set(squares, k);
+                Bits.clear(_squares[r], k);
+            }
+            countQueens(_count, white, black);
+            _whiteQueens[r] -= _whiteQueens[_count];
+            _blackQueens[r] -= _blackQueens[_count];
+            _count += 1;
+        }
+        _splitRegion[_depth] = r;
+        _splitCount[_depth] = _count - first;
+        _depth += 1;
+    }
+
+    /** Flood fill region R from the square with index START, returning
+     *  true iff the fill is cut off from some other neighbor of SPEAR in
+     *  R.  The fill stops early, returning false, once it has reached
+     *  every such neighbor.  Otherwise, the squares filled are left in
+     *  the first _filled entries of _queue. */
+    private boolean isSplit(int r, int spear, int start) {
+        _stamp += 1;
+        int unreached = 0;
+        for (int j : _geometry.neighbors(spear)) {
+            if (_label[j] == r && j != start) {
+                unreached += 1;
+            }
+        }
+        if (unreached == 0) {
+            return false;
+        }
+        _mark[start] = _stamp;
+        _queue[0] = start;
+        int tail = 1;
+        for (int head = 0; head < tail; head += 1) {
+            for (int j : _geometry.neighbors(_queue[head])) {
+                if (_label[j] == r && _mark[j] != _stamp) {
+                    _mark[j] = _stamp;
+                    _queue[tail] = j;
+                    tail += 1;
+                    if (Bits.get(_geometry.adjacent(spear), j)) {
+                        unreached -= 1;
+                        if (unreached == 0) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        _filled = tail;
+        return true;
+    }
+
+    /** Record that the spear on the square with index SPEAR, the last one
+     *  passed to addSpear, has been removed, merging back any regions it
+     *  split.  If the split was not recorded (because I was rebuilt
+     *  since), I become invalid instead. */
+    void removeSpear(int spear) {
+        if (!_valid) {
+            return;
+        }
+        if (_depth == 0) {
+            _valid = false;
+            return;
+        }
+        _depth -= 1;
+        int r = _splitRegion[_depth];
+        long[] into = _squares[r];
+        for (int c = _count - _splitCount[_depth]; c < _count; c += 1) {
+            long[] squares = _squares[c];
+            for (int k = Bits.next(squares, 0); k >= 0;
+                 k = Bits.next(squares, k + 1)) {
+                _label[k] = r;
+            }
+            for (int w = 0; w < into.length; w += 1) {
+                into[w] |= squares[w];
+            }
+            _whiteQueens[r] += _whiteQueens[c];
+            _blackQueens[r] += _blackQueens[c];
+        }
+        _count -= _splitCount[_depth];
+        _label[spear] = r;
+        Bits.set(into, spear);
+    }
+
+    /** Set the queen counts of region R from the bitboards of WHITE and
+     *  BLACK queens. */
+    private void countQueens(int r, long[] white, long[] black) {
+        long[] squares = _squares[r];
+        int w = 0, b = 0;
+        for (int k = 0; k < squares.length; k += 1) {
+            w += Long.bitCount(squares[k] & white[k]);
+            b += Long.bitCount(squares[k] & black[k]);
+        }
+        _whiteQueens[r] = w;
+        _blackQueens[r] = b;
+    }
+
+    /** Return the number of regions.  They are numbered from 0. */
+    int count() {
+        return _count;
+    }
+
+    /** Return the region of the square with index K, or -1 if it holds
+     *  a spear. */
+    int region(int k) {
+        return _label[k];
+    }
+
+    /** Return the bitboard of the squares in region R.  The caller must
+     *  not modify it. */
+    long[] squares(int r) {
+        return _squares[r];
+    }
+
+    /** Return the number of SIDE's queens in region R. */
+    int queens(int r, Piece side) {
+        return side == Piece.WHITE ? _whiteQueens[r] : _blackQueens[r];
+    }
+
+    /** Return true iff region R holds queens of both sides. */
+    boolean isContested(int r) {
+        return _whiteQueens[r] > 0 && _blackQueens[r] > 0;
+    }
+
+    /** Label of a square that is in no region. */
+    private static final int NONE = -1;
+
+    /** The board geometry. */
+    private final Geometry _geometry;
+    /** True iff the remaining fields describe the current position. */
+    private boolean _valid;
+    /** Region of each square, or NONE for spears. */
+    private final int[] _label;
+    /** Bitboard of the squares of each region. */
+    private final long[][] _squares;
+    /** Number of white and black queens in each region. */
+    private final int[] _whiteQueens, _blackQueens;
+    /** Number of regions. */
+    private int _count;
+    /** For each spear recorded by addSpear and not yet removed, oldest
+     *  first, the region it landed in and the number of new regions it
+     *  split off (numbered just below _count when it is the last). */
+    private final int[] _splitRegion, _splitCount;
+    /** Number of entries in _splitRegion and _splitCount. */
+    private int _depth;
+    /** Work queue for flood fills. */
+    private final int[] _queue;
+    /** Number of squares in _queue after a fill that found a split. */
+    private int _filled;
+    /** Squares reached by the current fill, marked with _stamp. */
+    private final int[] _mark;
+    /** Number of the current fill. */
+    private int _stamp;
+}
@@ -0,0 +1,638 @@
+package amazons;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import static amazons.AI.INFTY;
+import static amazons.AI.WINNING_VALUE;
+import static amazons.Piece.*;
+
+/** The game-tree search of an AI.  A Searcher holds a board and the
+ *  move buffers for each level of the search, and is used by one thread
+ *  at a time.  When its AI searches in parallel, a node at least
+ *  MIN_SPLIT_DEPTH from the leaves first searches its eldest child (its
+ *  first queen move) alone, in the Young Brothers Wait manner.  The
+ *  remaining queen moves then become tasks for the AI's ForkJoinPool,
+ *  each run by its own Searcher on its own copy of the board.  The
+ *  siblings share a narrowing window, and a cutoff cancels the siblings
+ *  still running.
+ *  @author Frederick Fan
+ */
+class Searcher {
+
+    /** A Searcher for AI. */
+    Searcher(AI ai) {
+        _ai = ai;
+        _table = ai.table();
+        _cache = ai.evalCache();
+        _territory = new Territory(ai.tablebase());
+    }
+
+    /** Search from (a copy of) MODEL to DEPTH for the side whose sense
+     *  (see findMove) is SENSE, trying the packed move HINT first if it is
+     *  not -1, and return the value found.  The best move is then
+     *  available from lastFoundMove.  If the search was abandoned (see
+     *  AI.isAborted), the results are meaningless. */
+    int search(Board model, int depth, int sense, int hint) {
+        return search(model, depth, sense, hint, -INFTY, INFTY);
+    }
+
+    /** As for search(MODEL, DEPTH, SENSE, HINT), but with the window
+     *  ALPHA..BETA.  A result <= ALPHA is only an upper bound on the
+     *  value of MODEL, and a result >= BETA only a lower bound. */
+    int search(Board model, int depth, int sense, int hint,
+               int alpha, int beta) {
+        _board.copy(model);
+        _rootHint = hint;
+        prepareHistory(model.size(), true);
+        Arrays.fill(_killers, -1);
+        Arrays.fill(_spearKillers, -1);
+        return findMove(_board, depth, true, sense, alpha, beta, null);
+    }
+
+    /** Return the number of nodes (queen-move choices) visited by my
+     *  searches so far. */
+    long nodes() {
+        return _nodes;
+    }
+
+    /** Return the number of nodes of my searches so far that were cut
+     *  off (beta <= alpha) by some queen move. */
+    long cutoffs() {
+        return _cutoffs;
+    }
+
+    /** Return the number of the cutoffs counted by cutoffs() that came
+     *  from the first queen move tried: a measure of the quality of the
+     *  move ordering. */
+    long firstMoveCutoffs() {
+        return _firstMoveCutoffs;
+    }
+
+    /** Return the packed move (see Move.code) found by the last search. */
+    int lastFoundMove() {
+        return _lastFoundMove;
+    }
+
+    /** Find a move from position BOARD and return its value, recording
+     *  the move found in _lastFoundMove iff SAVEMOVE. The move
+     *  should have maximal value or have value > BETA if SENSE==1,
+     *  and minimal value or value < ALPHA if SENSE==-1. Searches up to
+     *  DEPTH levels.  Searching at level 0 simply returns a static estimate
+     *  of the board value and does not set _lastMoveFound.  PARENT is
+     *  the nearest enclosing split node, if any, whose cancellation
+     *  makes this search pointless.
+     *
+     *  Each level is split into two half-plies: this method chooses the
+     *  queen move, trying the moves that leave the queen most mobile
+     *  first, and findSpear chooses the spear throw.  Both halves have
+     *  their own cutoffs, so a refuted queen move is abandoned without
+     *  generating the spear throws of its remaining siblings.  Queens
+     *  sealed in their own regions are moved only when no other queen
+     *  can move, since filling in territory can wait.
+     *
+     *  Results are kept in the transposition table, which supplies the
+     *  move to try first and, if deep enough, a score or bound that may
+     *  make the search unnecessary. */
+    private int findMove(Board board, int depth, boolean saveMove, int sense,
+                         int alpha, int beta, Split parent) {
+        if (depth == 0 || board.winner() != null) {
+            return staticScore(board);
+        }
+        if (isAborted(parent)) {
+            return 0;
+        }
+        _nodes += 1;
+        int alpha0 = alpha, beta0 = beta;
+        int hint = saveMove ? _rootHint : -1;
+        long entry = _table.probe(board.hash());
+        if (entry != 0) {
+            if (!saveMove && TranspositionTable.depth(entry) >= depth) {
+                int score = TranspositionTable.score(entry);
+                switch (TranspositionTable.bound(entry)) {
+                case TranspositionTable.EXACT:
+                    return score;
+                case TranspositionTable.LOWER:
+                    alpha = Math.max(alpha, score);
+                    break;
+                default:
+                    beta = Math.min(beta, score);
+                    break;
+                }
+                if (beta <= alpha) {
+                    return score;
+                }
+            }
+            if (hint < 0) {
+                hint = TranspositionTable.move(entry);
+            }
+        }
+        int[] moves = queenMoveBuffer(board, depth);
+        int[] keys = _queenMoveKeys[depth];
+        int numMoves = board.queenMoves(board.turn(), true, moves);
+        if (numMoves == 0) {
+            numMoves = board.queenMoves(board.turn(), moves);
+        }
+        int[] history = _queenHistory[side(board)];
+        int squares = board.size() * board.size();
+        for (int i = 0; i < numMoves; i += 1) {
+            int from = Move.codeFrom(moves[i]), to = Move.codeTo(moves[i]);
+            if (moves[i] == _killers[2 * depth]) {
+                keys[i] = KILLER_KEY;
+            } else if (moves[i] == _killers[2 * depth + 1]) {
+                keys[i] = KILLER_KEY - 1;
+            } else {
+                keys[i] = history[from * squares + to]
+                    + board.reachCount(to, from);
+            }
+        }
+        sortByKey(moves, keys, numMoves);
+        if (hint >= 0) {
+            moveToFront(moves, numMoves, hint, false);
+        }
+
+        int bestSoFar = sense == 1 ? -INFTY : INFTY;
+        int bestMove = -1;
+        for (int i = 0; i < numMoves; i += 1) {
+            if (i == 1 && depth >= MIN_SPLIT_DEPTH && _ai.isParallel()) {
+                Split split = new Split(parent, sense, alpha, beta,
+                                        bestSoFar, bestMove);
+                searchSiblings(board, moves, i, numMoves, depth, split);
+                bestSoFar = split.best();
+                bestMove = split.bestMove();
+                break;
+            }
+            int from = Move.codeFrom(moves[i]), to = Move.codeTo(moves[i]);
+            board.makeQueenMove(from, to);
+            _firstSpear = i == 0 && hint >= 0
+                && (moves[0] & QUEEN_MOVE_MASK) == (hint & QUEEN_MOVE_MASK)
+                ? Move.codeSpear(hint) : -1;
+            int response = findSpear(board, depth, sense, alpha, beta,
+                                     i == 0, parent);
+            board.undoQueenMove();
+            if (isAborted(parent)) {
+                return 0;
+            }
+            if (bestMove == -1
+                || sense == 1 && response > bestSoFar
+                || sense == -1 && response < bestSoFar) {
+                bestSoFar = response;
+                bestMove = Move.code(from, to, _lastFoundSpear[depth]);
+            }
+            if (sense == 1) {
+                alpha = Math.max(alpha, response);
+            } else {
+                beta = Math.min(beta, response);
+            }
+            if (beta <= alpha) {
+                _cutoffs += 1;
+                if (i == 0) {
+                    _firstMoveCutoffs += 1;
+                }
+                recordQueenCutoff(board, moves[i], depth);
+                break;
+            }
+        }
+        if (isAborted(parent)) {
+            return 0;
+        }
+
+        int bound = bestSoFar <= alpha0 ? TranspositionTable.UPPER
+            : bestSoFar >= beta0 ? TranspositionTable.LOWER
+            : TranspositionTable.EXACT;
+        _table.store(board.hash(), depth, bestSoFar, bound, bestMove);
+        if (saveMove) {
+            _lastFoundMove = bestMove;
+        }
+        return bestSoFar;
+    }
+
+    /** Choose a spear throw for the queen move pending on BOARD, and
+     *  return the value of the best one, with the same conventions for
+     *  DEPTH, SENSE, ALPHA, BETA, and PARENT as findMove.  Records the
+     *  spear chosen in _lastFoundSpear[DEPTH].
+     *
+     *  This is a principal variation search: only the first move of a
+     *  node (its first queen move with its first spear, when ELDEST) is
+     *  searched with the full window.  The rest are searched with null
+     *  windows, which only test whether they beat the best so far, and
+     *  are searched again with the full window if they do. */
+    private int findSpear(Board board, int depth, int sense,
+                          int alpha, int beta, boolean eldest,
+                          Split parent) {
+        int[] spears = _spearBuffers[depth];
+        int[] keys = _spearKeys[depth];
+        int numSpears = board.spearThrows(spears);
+        Piece enemy = board.turn().opponent();
+        int[] history = _spearHistory[side(board)];
+        for (int i = 0; i < numSpears; i += 1) {
+            keys[i] = spears[i] == _spearKillers[depth] ? KILLER_KEY
+                : board.adjacentQueens(spears[i], enemy) * ADJACENT_KEY
+                  + history[spears[i]];
+        }
+        sortByKey(spears, keys, numSpears);
+        if (_firstSpear >= 0) {
+            moveToFront(spears, numSpears, _firstSpear, true);
+            _firstSpear = -1;
+        }
+        int bestSoFar = sense == 1 ? -INFTY : INFTY;
+        int bestSpear = spears[0];
+        for (int i = 0; i < numSpears; i += 1) {
+            board.throwSpear(spears[i]);
+            int response;
+            if (eldest && i == 0 || beta - alpha <= 1) {
+                response = findMove(board, depth - 1,
+                                    false, -sense, alpha, beta, parent);
+            } else {
+                response = findMove(board, depth - 1, false, -sense,
+                                    sense == 1 ? alpha : beta - 1,
+                                    sense == 1 ? alpha + 1 : beta, parent);
+                if (response > alpha && response < beta
+                    && !isAborted(parent)) {
+                    response = findMove(board, depth - 1,
+                                        false, -sense, alpha, beta, parent);
+                }
+            }
+            board.undoSpear();
+            if (isAborted(parent)) {
+                return 0;
+            }
+            if (sense == 1 && response > bestSoFar) {
+                bestSoFar = response;
+                bestSpear = spears[i];
+                alpha = Math.max(alpha, response);
+            } else if (sense == -1 && response < bestSoFar) {
+                bestSoFar = response;
+                bestSpear = spears[i];
+                beta = Math.min(beta, response);
+            }
+            if (beta <= alpha) {
+                _spearKillers[depth] = spears[i];
+                history[spears[i]] += depth * depth;
+                if (history[spears[i]] > HISTORY_LIMIT) {
+                    age(history);
+                }
+                break;
+            }
+        }
+        _lastFoundSpear[depth] = bestSpear;
+        return bestSoFar;
+    }
+
+    /** Search the queen moves MOVES[LO .. HI-1] from BOARD, at DEPTH, in
+     *  parallel, reporting their values to SPLIT.  Returns when all have
+     *  been searched or cancelled.  BOARD is not changed, and must not
+     *  be changed until then. */
+    private void searchSiblings(Board board, int[] moves, int lo, int hi,
+                                int depth, Split split) {
+        Sibling[] tasks = new Sibling[hi - lo];
+        for (int i = lo; i < hi; i += 1) {
+            tasks[i - lo] = new Sibling(board, moves[i], depth, split);
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    /** Return true iff the current search should stop: because my AI has
+     *  run out of time, or because the split node PARENT (if not null)
+     *  or one of its ancestors has been cancelled.  Checks the clock
+     *  every CLOCK_INTERVAL calls. */
+    private boolean isAborted(Split parent) {
+        _clockCount += 1;
+        if (_clockCount % CLOCK_INTERVAL == 0) {
+            _ai.checkClock();
+        }
+        return _ai.isAborted() || parent != null && parent.isCancelled();
+    }
+
+    /** Record that the queen move MOVE (packed, with a spear of 0) caused
+     *  a cutoff on BOARD at DEPTH, making it a killer at that depth and
+     *  raising its history score. */
+    private void recordQueenCutoff(Board board, int move, int depth) {
+        if (_killers[2 * depth] != move) {
+            _killers[2 * depth + 1] = _killers[2 * depth];
+            _killers[2 * depth] = move;
+        }
+        int[] history = _queenHistory[side(board)];
+        int k = Move.codeFrom(move) * board.size() * board.size()
+            + Move.codeTo(move);
+        history[k] += depth * depth;
+        if (history[k] > HISTORY_LIMIT) {
+            age(history);
+        }
+    }
+
+    /** Make sure my history tables are for a board with SIZE squares on
+     *  a side, clearing them if they were not.  If AGE, also reduce the
+     *  scores of old searches. */
+    private void prepareHistory(int size, boolean age) {
+        int squares = size * size;
+        if (_spearHistory[0].length != squares) {
+            for (int side = 0; side < 2; side += 1) {
+                _queenHistory[side] = new int[squares * squares];
+                _spearHistory[side] = new int[squares];
+            }
+        } else if (age) {
+            for (int side = 0; side < 2; side += 1) {
+                age(_queenHistory[side]);
+                age(_spearHistory[side]);
+            }
+        }
+    }
+
+    /** Halve the scores in HISTORY. */
+    private static void age(int[] history) {
+        for (int i = 0; i < history.length; i += 1) {
+            history[i] >>= 1;
+        }
+    }
+
+    /** Return the index in my history tables of the side to move on
+     *  BOARD. */
+    private static int side(Board board) {
+        return board.turn() == WHITE ? 0 : 1;
+    }
+
+    /** If one of the first N entries of MOVES matches FIRST, move it to
+     *  the front, keeping the others in order.  If SPEAR, entries and
+     *  FIRST are spear squares that must be equal; otherwise they are
+     *  packed moves whose queen moves must be equal. */
+    private static void moveToFront(int[] moves, int n, int first,
+                                    boolean spear) {
+        int mask = spear ? -1 : QUEEN_MOVE_MASK;
+        for (int i = 0; i < n; i += 1) {
+            if ((moves[i] & mask) == (first & mask)) {
+                int move = moves[i];
+                System.arraycopy(moves, 0, moves, 1, i);
+                moves[0] = move;
+                return;
+            }
+        }
+    }
+
+    /** Sort the first N entries of MOVES into decreasing order of the
+     *  corresponding entries of KEYS, permuting KEYS to match.  The
+     *  lists are short, so insertion sort does well. */
+    private static void sortByKey(int[] moves, int[] keys, int n) {
+        for (int i = 1; i < n; i += 1) {
+            int move = moves[i], key = keys[i];
+            int j;
+            for (j = i; j > 0 && keys[j - 1] < key; j -= 1) {
+                moves[j] = moves[j - 1];
+                keys[j] = keys[j - 1];
+            }
+            moves[j] = move;
+            keys[j] = key;
+        }
+    }
+
+    /** Return the buffer for the queen moves generated at search level
+     *  DEPTH on BOARD, making sure that the matching entries of
+     *  _queenMoveKeys, _spearBuffers, and _lastFoundSpear exist and are
+     *  large enough.  Buffers are allocated only when first needed. */
+    private int[] queenMoveBuffer(Board board, int depth) {
+        if (depth >= _queenMoveBuffers.length) {
+            _queenMoveBuffers = Arrays.copyOf(_queenMoveBuffers, depth + 1);
+            _queenMoveKeys = Arrays.copyOf(_queenMoveKeys, depth + 1);
+            _spearBuffers = Arrays.copyOf(_spearBuffers, depth + 1);
+            _spearKeys = Arrays.copyOf(_spearKeys, depth + 1);
+            _lastFoundSpear = Arrays.copyOf(_lastFoundSpear, depth + 1);
+            int old = _spearKillers.length;
+            _spearKillers = Arrays.copyOf(_spearKillers, depth + 1);
+            Arrays.fill(_spearKillers, old, depth + 1, -1);
+            _killers = Arrays.copyOf(_killers, 2 * (depth + 1));
+            Arrays.fill(_killers, 2 * old, 2 * (depth + 1), -1);
+        }
+        int size = Math.max(board.maxQueenMoves(WHITE),
+                            board.maxQueenMoves(BLACK));
+        if (_queenMoveBuffers[depth] == null
+            || _queenMoveBuffers[depth].length < size) {
+            _queenMoveBuffers[depth] = new int[size];
+            _queenMoveKeys[depth] = new int[size];
+        }
+        if (_spearBuffers[depth] == null
+            || _spearBuffers[depth].length < board.maxReach()) {
+            _spearBuffers[depth] = new int[board.maxReach()];
+            _spearKeys[depth] = new int[board.maxReach()];
+        }
+        return _queenMoveBuffers[depth];
+    }
+
+    /** Return a heuristic value for BOARD: its territory balance (see
+     *  Territory) if the game is not over, taken from the evaluation
+     *  cache if it is there. */
+    private int staticScore(Board board) {
+        Piece winner = board.winner();
+        if (winner == BLACK) {
+            return -WINNING_VALUE;
+        } else if (winner == WHITE) {
+            return WINNING_VALUE;
+        } else {
+            long hash = board.hash();
+            long entry = _cache.probe(hash);
+            if (entry != 0) {
+                return EvalCache.score(entry);
+            }
+            int score = _territory.evaluate(board);
+            _cache.store(hash, score);
+            return score;
+        }
+    }
+
+    /** A node whose children are being searched in parallel: the shared
+     *  window and best result of the siblings, and whether a cutoff (or
+     *  the cancellation of an enclosing split) has made further search
+     *  of them pointless. */
+    private static final class Split {
+
+        /** A split node below PARENT (null if none) whose side to move
+         *  has sense SENSE, with window ALPHA..BETA, and whose eldest
+         *  child had value BEST with move BESTMOVE. */
+        Split(Split parent, int sense, int alpha, int beta,
+              int best, int bestMove) {
+            _parent = parent;
+            _sense = sense;
+            _alpha = alpha;
+            _beta = beta;
+            _best = best;
+            _bestMove = bestMove;
+        }
+
+        /** Record that a child move MOVE has value VALUE, cancelling the
+         *  remaining children if that causes a cutoff. */
+        synchronized void report(int value, int move) {
+            if (_sense == 1 ? value > _best : value < _best) {
+                _best = value;
+                _bestMove = move;
+            }
+            if (_sense == 1) {
+                _alpha = Math.max(_alpha, value);
+            } else {
+                _beta = Math.min(_beta, value);
+            }
+            if (_beta <= _alpha) {
+                _cancelled = true;
+            }
+        }
+
+        /** Return true iff this node or an enclosing one has been
+         *  cancelled. */
+        boolean isCancelled() {
+            for (Split s = this; s != null; s = s._parent) {
+                if (s._cancelled) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Return the sense of the side to move. */
+        int sense() {
+            return _sense;
+        }
+
+        /** Return the current lower end of the window. */
+        int alpha() {
+            return _alpha;
+        }
+
+        /** Return the current upper end of the window. */
+        int beta() {
+            return _beta;
+        }
+
+        /** Return the best value reported so far. */
+        synchronized int best() {
+            return _best;
+        }
+
+        /** Return the move with the best value reported so far. */
+        synchronized int bestMove() {
+            return _bestMove;
+        }
+
+        /** The enclosing split node, or null. */
+        private final Split _parent;
+        /** Sense of the side to move. */
+        private final int _sense;
+        /** The window. */
+        private volatile int _alpha, _beta;
+        /** True iff a cutoff has occurred here. */
+        private volatile boolean _cancelled;
+        /** Best value and move so far. */
+        private int _best, _bestMove;
+    }
+
+    /** The search of one younger sibling at a split node. */
+    private final class Sibling extends RecursiveAction {
+
+        /** A task searching queen move MOVE from BOARD at DEPTH for
+         *  SPLIT. */
+        Sibling(Board board, int move, int depth, Split split) {
+            _model = board;
+            _move = move;
+            _depth = depth;
+            _split = split;
+        }
+
+        @Override
+        protected void compute() {
+            if (_ai.isAborted() || _split.isCancelled()) {
+                return;
+            }
+            Searcher searcher = _ai.acquireSearcher();
+            try {
+                Board board = searcher._board;
+                board.copy(_model);
+                searcher.queenMoveBuffer(board, _depth);
+                searcher.prepareHistory(board.size(), false);
+                int from = Move.codeFrom(_move), to = Move.codeTo(_move);
+                board.makeQueenMove(from, to);
+                searcher._firstSpear = -1;
+                int value = searcher.findSpear(board, _depth, _split.sense(),
+                                               _split.alpha(), _split.beta(),
+                                               false, _split);
+                if (!searcher.isAborted(_split)) {
+                    int spear = searcher._lastFoundSpear[_depth];
+                    _split.report(value, Move.code(from, to, spear));
+                }
+            } finally {
+                _ai.releaseSearcher(searcher);
+            }
+        }
+
+        /** The position at the split node. */
+        private final Board _model;
+        /** The queen move to search. */
+        private final int _move;
+        /** Depth of the split node. */
+        private final int _depth;
+        /** The split node. */
+        private final Split _split;
+
+        /** Version of this class for serialization, which RecursiveAction
+         *  allows but the search never uses. */
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** Least depth of a node whose children are searched in parallel. */
+    static final int MIN_SPLIT_DEPTH = 2;
+    /** Number of search nodes between readings of the clock. */
+    private static final int CLOCK_INTERVAL = 256;
+    /** The from and to parts of a packed move (see Move.code). */
+    private static final int QUEEN_MOVE_MASK = 0xffff;
+    /** Ordering key of a killer move, above any other key. */
+    private static final int KILLER_KEY = 1 << 30;
+    /** Ordering key added for each enemy queen next to a spear square,
+     *  above any history score. */
+    private static final int ADJACENT_KEY = 1 << 22;
+    /** History scores above this cause the table to be aged. */
+    private static final int HISTORY_LIMIT = 1 << 20;
+
+    /** The AI I search for. */
+    private final AI _ai;
+    /** The AI's transposition table. */
+    private final TranspositionTable _table;
+    /** The AI's evaluation cache. */
+    private final EvalCache _cache;
+    /** My board. */
+    private final Board _board = new Board();
+    /** My static evaluator. */
+    private final Territory _territory;
+    /** The move to try first at the root of the current search. */
+    private int _rootHint;
+    /** The packed move found by the last search. */
+    private int _lastFoundMove;
+    /** The spear throw to try first in the next call to findSpear, or
+     *  -1 for none. */
+    private int _firstSpear = -1;
+    /** Number of calls to isAborted so far. */
+    private int _clockCount;
+    /** Statistics: nodes visited, cutoffs, and cutoffs by the first
+     *  move tried. */
+    private long _nodes, _cutoffs, _firstMoveCutoffs;
+
+    /** The two most recent queen moves (packed, with spear 0) to cause a
+     *  cutoff at each depth, at indices 2 * depth and 2 * depth + 1, or
+     *  -1. */
+    private int[] _killers = new int[0];
+    /** The most recent spear square to cause a cutoff at each depth, or
+     *  -1. */
+    private int[] _spearKillers = new int[0];
+    /** History scores of queen moves, indexed by side (0 for white) and
+     *  then by from * squares + to: the sum of the squares of the depths
+     *  at which they caused cutoffs, halved with age. */
+    private final int[][] _queenHistory = { new int[0], new int[0] };
+    /** History scores of spear squares, indexed by side and square. */
+    private final int[][] _spearHistory = { new int[0], new int[0] };
+
+    /** Queen-move buffers for each search level, indexed by remaining
+     *  depth, and the ordering keys of their moves. */
+    private int[][] _queenMoveBuffers = new int[0][],
+        _queenMoveKeys = new int[0][];
+    /** Spear-throw buffers for each search level, and the ordering
+     *  keys of their spears. */
+    private int[][] _spearBuffers = new int[0][], _spearKeys = new int[0][];
+    /** The spear chosen by the last call to findSpear at each level. */
+    private int[] _lastFoundSpear = new int[0];
+}
@@ -2,7 +2,6 @@ package amazons;
 
 import java.util.Arrays;
 import java.util.Iterator;
-import java.util.List;
 
 import static amazons.Utils.*;
 
@@ -14,21 +13,27 @@ import static amazons.Utils.*;
  *  position, you can freely use the cheap == operator (rather than the
  *  .equals method) to compare Squares, and the program does not waste time
  *  creating the same square over and over again.
+ *
+ *  Boards may have any size from MIN_SIZE to MAX_SIZE squares on a side.
+ *  Each size has its own precomputed family of Squares, numbered from 0
+ *  to size * size - 1 in the same way, and a Square belongs to exactly
+ *  one family (see size()).  The factory methods without a size argument
+ *  return Squares of the standard Board.SIZE board.
  *  @author Frederick Fan
  */
 final class Square {
     /** Returns the constant 97.*/
     public static final int NINESEVEN = 97;
 
-    /** Returns the constant 10.*/
-    public static final int TEN = 10;
+    /** The smallest and largest supported board sizes. */
+    static final int MIN_SIZE = 4, MAX_SIZE = 16;
 
     /** The regular expression for a square designation (e.g.,
-     *  a3). For convenience, it is in parentheses to make it a
-     *  group.  This subpattern is intended to be incorporated into
-     *  other pattern that contain square designations (such as
-     *  patterns for moves). */
-    static final String SQ = "([a-j](?:[1-9]|10))";
+     *  a3) on a board of any supported size. For convenience, it is in
+     *  parentheses to make it a group.  This subpattern is intended to be
+     *  incorporated into other pattern that contain square designations
+     *  (such as patterns for moves). */
+    static final String SQ = "([a-p](?:1[0-6]|[1-9]))";
 
     /** Return my row position, where 0 is the bottom row. */
     int row() {
@@ -40,12 +45,18 @@ final class Square {
         return _col;
     }
 
-    /** Return my index position (0-99).  0 represents square a1, and 99
-     *  is square j10. */
+    /** Return my index position (0 to size() * size() - 1).  0
+     *  represents square a1, and 99 is square j10 on a standard board. */
     int index() {
         return _index;
     }
 
+    /** Return the number of squares on a side of the boards I belong
+     *  to. */
+    int size() {
+        return _size;
+    }
+
     /** Method for giving access to DIR. @return dir*/
     static int[][] dir() {
         return DIR;
@@ -81,14 +92,14 @@ final class Square {
     Square queenMove(int dir, int steps) {
         if (dir >= DIR.length || dir < 0) {
             return null;
-        } else if (this.col()  + steps * DIR[dir][0] >= Board.SIZE
-                || this.row() + steps * DIR[dir][1] >= Board.SIZE
+        } else if (this.col()  + steps * DIR[dir][0] >= _size
+                || this.row() + steps * DIR[dir][1] >= _size
                 || this.col()  + steps * DIR[dir][0] < 0
                 || this.row() + steps * DIR[dir][1] < 0) {
             return null;
         } else {
-            return sq(this.col()
-                    + steps * DIR[dir][0], this.row() + steps * DIR[dir][1]);
+            return sq(_size, this.col() + steps * DIR[dir][0],
+                      this.row() + steps * DIR[dir][1]);
         }
     }
 
@@ -131,68 +142,112 @@ final class Square {
 
     /** Return true iff COL ROW is a legal square. */
     static boolean exists(int col, int row) {
-        return row >= 0 && col >= 0 && row < Board.SIZE && col < Board.SIZE;
+        return exists(Board.SIZE, col, row);
+    }
+
+    /** Return true iff COL ROW is a legal square on a SIZE x SIZE
+     *  board. */
+    static boolean exists(int size, int col, int row) {
+        return row >= 0 && col >= 0 && row < size && col < size;
     }
 
     /** Return the (unique) Square denoting COL ROW. */
     static Square sq(int col, int row) {
-        if (!exists(row, col)) {
+        return sq(Board.SIZE, col, row);
+    }
+
+    /** Return the (unique) Square denoting COL ROW on a SIZE x SIZE
+     *  board. */
+    static Square sq(int size, int col, int row) {
+        if (!exists(size, col, row)) {
             throw error("row or column out of bounds");
         }
-        int index = 10 * row + col;
-        return sq(index);
+        return sqIndex(size, size * row + col);
     }
 
     /** Return the (unique) Square denoting the position with index INDEX. */
     static Square sq(int index) {
-        return SQUARES[index];
+        return STANDARD[index];
+    }
+
+    /** Return the (unique) Square denoting the position with index INDEX
+     *  on a SIZE x SIZE board. */
+    static Square sqIndex(int size, int index) {
+        return SQUARES[size][index];
     }
 
     /** Return the (unique) Square denoting the position COL ROW, where
      *  COL ROW is the standard text format for a square (e.g., a4). */
     static Square sq(String col, String row) {
+        return sq(Board.SIZE, col, row);
+    }
+
+    /** Return the (unique) Square denoting the position COL ROW on a
+     *  SIZE x SIZE board, where COL ROW is the standard text format for
+     *  a square (e.g., a4). */
+    static Square sq(int size, String col, String row) {
         int colInt = (int) col.charAt(0) - NINESEVEN;
         int rowInt = Integer.parseInt(row);
-        return sq(colInt, rowInt - 1);
+        return sq(size, colInt, rowInt - 1);
     }
 
     /** Return the (unique) Square denoting the position in POSN, in the
      *  standard text format for a square (e.g. a4). POSN must be a
      *  valid square designation. */
     static Square sq(String posn) {
+        return sq(Board.SIZE, posn);
+    }
+
+    /** Return the (unique) Square denoting the position in POSN on a
+     *  SIZE x SIZE board, in the standard text format for a square
+     *  (e.g. a4). POSN must be a valid square designation. */
+    static Square sq(int size, String posn) {
         assert posn.matches(SQ);
         String col = Character.toString(posn.charAt(0));
         String row = posn.substring(1, posn.length());
-        return sq(col, row);
+        return sq(size, col, row);
     }
 
     /** Return an iterator over all Squares. */
     static Iterator<Square> iterator() {
-        return SQUARE_LIST.iterator();
+        return iterator(Board.SIZE);
+    }
+
+    /** Return an iterator over all Squares of a SIZE x SIZE board. */
+    static Iterator<Square> iterator(int size) {
+        return Arrays.asList(SQUARES[size]).iterator();
     }
 
-    /** Return the Square with index INDEX. */
-    private Square(int index) {
+    /** Return the Square with index INDEX on a SIZE x SIZE board. */
+    private Square(int size, int index) {
+        _size = size;
         _index = index;
-        _row = index / TEN;
-        _col = index - _row * TEN;
+        _row = index / size;
+        _col = index - _row * size;
         char c = (char) (NINESEVEN + _col);
         _str = String.format("%c%d", c, _row + 1);
     }
 
-    /** The cache of all created squares, by index. */
-    private static final Square[] SQUARES =
-        new Square[Board.SIZE * Board.SIZE];
-
-    /** SQUARES viewed as a List. */
-    private static final List<Square> SQUARE_LIST = Arrays.asList(SQUARES);
+    /** The cache of all created squares, by board size and index.  There
+     *  are few enough Squares for all sizes together that they are all
+     *  created in advance. */
+    private static final Square[][] SQUARES = new Square[MAX_SIZE + 1][];
 
     static {
-        for (int i = Board.SIZE * Board.SIZE - 1; i >= 0; i -= 1) {
-            SQUARES[i] = new Square(i);
+        for (int size = MIN_SIZE; size <= MAX_SIZE; size += 1) {
+            SQUARES[size] = new Square[size * size];
+            for (int i = size * size - 1; i >= 0; i -= 1) {
+                SQUARES[size][i] = new Square(size, i);
+            }
         }
     }
 
+    /** The Squares of the standard board, by index. */
+    private static final Square[] STANDARD = SQUARES[Board.SIZE];
+
+    /** Size of the boards I belong to. */
+    private final int _size;
+
     /** My index position. */
     private final int _index;
 
@@ -0,0 +1,218 @@
+package amazons;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static amazons.Piece.*;
+import static amazons.Utils.error;
+
+/** A table of the exact fills (see Endgame) of small regions, read from
+ *  a file made by TablebaseBuilder.  A region is covered if it has at
+ *  most maxSquares() squares (counting those of its queens), fits in a
+ *  BOX x BOX square, and holds one or two queens, all of one side.
+ *
+ *  A region is looked up by its key: its squares as a bitmask over the
+ *  BOX x BOX square (bit BOX * ROW + COL), moved to touch the top and
+ *  left edges, together with the positions of its queens in the same
+ *  terms.  Of the eight ways of turning and reflecting a region, the
+ *  one whose key is least is the canonical one, so that regions of the
+ *  same shape and queen placement share a key however they lie on the
+ *  board.
+ *
+ *  The file holds, after a header giving maxSquares() and the number
+ *  of entries for each region size, the sorted keys of each size and
+ *  then their fills, one byte each.  It is mapped into memory rather
+ *  than read, and searched in place.  A table is never changed once
+ *  opened, and so may be used by any number of threads at once.
+ *  @author Frederick Fan
+ */
+class Tablebase {
+
+    /** Width and height of the square in which covered regions must
+     *  fit. */
+    static final int BOX = 7;
+    /** Queen position in a key that stands for no queen. */
+    static final int NONE = 63;
+
+    /** A table read from the file named NAME. */
+    Tablebase(String name) {
+        try (FileChannel file = FileChannel.open(Paths.get(name),
+                                                 StandardOpenOption.READ)) {
+            if (file.size() > Integer.MAX_VALUE) {
+                throw error("malformed tablebase: %s", name);
+            }
+            _entries = file.map(FileChannel.MapMode.READ_ONLY, 0,
+                                file.size());
+        } catch (IOException excp) {
+            throw error("could not read tablebase: %s", name);
+        }
+        _maxSquares = _entries.getInt(0);
+        if (_maxSquares < 1 || _maxSquares > BOX * BOX) {
+            throw error("malformed tablebase: %s", name);
+        }
+        _counts = new int[_maxSquares + 1];
+        _offsets = new int[_maxSquares + 1];
+        long offset = Integer.BYTES * (_maxSquares + 1);
+        for (int n = 1; n <= _maxSquares; n += 1) {
+            _counts[n] = _entries.getInt(Integer.BYTES * n);
+            _offsets[n] = (int) offset;
+            offset += (long) _counts[n] * (Long.BYTES + 1);
+        }
+        if (offset != _entries.capacity()) {
+            throw error("malformed tablebase: %s", name);
+        }
+    }
+
+    /** Return the size of the largest regions covered. */
+    int maxSquares() {
+        return _maxSquares;
+    }
+
+    /** Return the number of entries. */
+    int size() {
+        int total = 0;
+        for (int count : _counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /** Return the fill of AREA, a region of BOARD whose queens (if any)
+     *  are all of one side, or -1 if AREA is not covered. */
+    int fill(Board board, long[] area) {
+        int size = board.size();
+        int n = 0, minCol = size, minRow = size, maxCol = -1, maxRow = -1;
+        for (int k = Bits.next(area, 0); k >= 0;
+             k = Bits.next(area, k + 1)) {
+            n += 1;
+            if (n > _maxSquares) {
+                return -1;
+            }
+            int col = k % size, row = k / size;
+            minCol = Math.min(minCol, col);
+            maxCol = Math.max(maxCol, col);
+            minRow = Math.min(minRow, row);
+            maxRow = Math.max(maxRow, row);
+        }
+        if (n == 0 || maxCol - minCol >= BOX || maxRow - minRow >= BOX) {
+            return -1;
+        }
+        long mask = 0;
+        int queen0 = NONE, queen1 = NONE;
+        for (int k = Bits.next(area, 0); k >= 0;
+             k = Bits.next(area, k + 1)) {
+            int i = (k / size - minRow) * BOX + k % size - minCol;
+            mask |= 1L << i;
+            Piece p = board.get(k);
+            if (p == WHITE || p == BLACK) {
+                if (queen0 == NONE) {
+                    queen0 = i;
+                } else if (queen1 == NONE) {
+                    queen1 = i;
+                } else {
+                    return -1;
+                }
+            }
+        }
+        if (queen0 == NONE) {
+            return 0;
+        }
+        return value(n, key(mask, queen0, queen1));
+    }
+
+    /** Return the fill stored for KEY, a key of a region of N squares, or
+     *  -1 if there is none. */
+    private int value(int n, long key) {
+        int base = _offsets[n], count = _counts[n];
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            long probe = _entries.getLong(base + mid * Long.BYTES);
+            if (probe < key) {
+                lo = mid + 1;
+            } else if (probe > key) {
+                hi = mid;
+            } else {
+                return _entries.get(base + count * Long.BYTES + mid);
+            }
+        }
+        return -1;
+    }
+
+    /** Return the canonical key of the region whose squares are MASK
+     *  (bit BOX * ROW + COL for each), with queens at QUEEN0 and QUEEN1
+     *  in the same terms (either NONE if absent). */
+    static long key(long mask, int queen0, int queen1) {
+        long best = Long.MAX_VALUE;
+        for (int sym = 0; sym < SYMMETRIES; sym += 1) {
+            int minRow = BOX, minCol = BOX;
+            for (long m = mask; m != 0; m &= m - 1) {
+                int i = transform(sym, Long.numberOfTrailingZeros(m));
+                minRow = Math.min(minRow, i / BOX);
+                minCol = Math.min(minCol, i % BOX);
+            }
+            int shift = minRow * BOX + minCol;
+            long moved = 0;
+            for (long m = mask; m != 0; m &= m - 1) {
+                moved |= 1L << transform(sym,
+                                         Long.numberOfTrailingZeros(m))
+                    - shift;
+            }
+            int q0 = queen0 == NONE ? NONE : transform(sym, queen0) - shift,
+                q1 = queen1 == NONE ? NONE : transform(sym, queen1) - shift;
+            long key = moved | (long) Math.min(q0, q1) << QUEEN0_SHIFT
+                | (long) Math.max(q0, q1) << QUEEN1_SHIFT;
+            best = Math.min(best, key);
+        }
+        return best;
+    }
+
+    /** Return the squares of KEY. */
+    static long mask(long key) {
+        return key & SQUARES_MASK;
+    }
+
+    /** Return the first queen of KEY. */
+    static int queen0(long key) {
+        return (int) (key >>> QUEEN0_SHIFT) & NONE;
+    }
+
+    /** Return the second queen of KEY, or NONE if it has only one. */
+    static int queen1(long key) {
+        return (int) (key >>> QUEEN1_SHIFT) & NONE;
+    }
+
+    /** Return the square to which the symmetry numbered SYM moves square
+     *  I of the BOX x BOX square.  Bit 0 of SYM reflects rows, bit 1
+     *  reflects columns, and bit 2 then swaps rows and columns. */
+    private static int transform(int sym, int i) {
+        int row = i / BOX, col = i % BOX;
+        if ((sym & 1) != 0) {
+            row = BOX - 1 - row;
+        }
+        if ((sym & 2) != 0) {
+            col = BOX - 1 - col;
+        }
+        return (sym & 4) != 0 ? col * BOX + row : row * BOX + col;
+    }
+
+    /** Number of symmetries of the square. */
+    private static final int SYMMETRIES = 8;
+    /** Layout of a key: the squares in the low BOX * BOX bits, then the
+     *  lesser and the greater queen position, 6 bits each. */
+    private static final int QUEEN0_SHIFT = BOX * BOX,
+        QUEEN1_SHIFT = QUEEN0_SHIFT + 6;
+    /** Mask for the squares of a key. */
+    private static final long SQUARES_MASK = (1L << BOX * BOX) - 1;
+
+    /** The contents of the file. */
+    private final ByteBuffer _entries;
+    /** The size of the largest regions covered. */
+    private final int _maxSquares;
+    /** For each region size, the number of entries, and the offset of
+     *  their keys in _entries (their fills follow the keys). */
+    private final int[] _counts, _offsets;
+}
@@ -0,0 +1,300 @@
+package amazons;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static amazons.Tablebase.BOX;
+import static amazons.Tablebase.NONE;
+import static amazons.Utils.error;
+
+/** Builds a Tablebase of the fills of all regions of up to a given
+ *  number of squares, by retrograde analysis: in order of increasing
+ *  size, so that every region a move can leave (which is always
+ *  smaller, having lost the square the spear lands on) has already been
+ *  solved.  A move from a region leaves its queens in one region, or
+ *  in two that are then filled separately, so the fill of a region is
+ *  the best, over its moves, of one more than the fills of the regions
+ *  they leave.
+ *
+ *  The shapes of each size are found by adding a square in every
+ *  possible way to each shape one smaller, keeping one canonical shape
+ *  of each kind (see Tablebase.key).  The regions of each size are then
+ *  solved in parallel, shared out among the threads of a ForkJoinPool
+ *  as for Perft.
+ *  @author Frederick Fan
+ */
+class TablebaseBuilder {
+
+    /** Default size of the largest regions in a table. */
+    static final int DEFAULT_SQUARES = 8;
+
+    /** A builder for a table of regions of up to MAXSQUARES squares. */
+    TablebaseBuilder(int maxSquares) {
+        if (maxSquares < 1 || maxSquares > BOX * BOX) {
+            throw error("tablebase region size must be between 1 and %d",
+                        BOX * BOX);
+        }
+        _maxSquares = maxSquares;
+        _keys = new long[maxSquares + 1][0];
+        _fills = new byte[maxSquares + 1][0];
+    }
+
+    /** Solve all regions, using the threads of POOL. */
+    void build(ForkJoinPool pool) {
+        long[] shapes = { 1L };
+        for (int n = 1; n <= _maxSquares; n += 1) {
+            if (n > 1) {
+                shapes = grow(shapes);
+            }
+            long[] keys = regions(shapes);
+            _fills[n] = new byte[keys.length];
+            pool.invoke(new Solve(keys, _fills[n], 0, keys.length));
+            _keys[n] = keys;
+        }
+    }
+
+    /** Return the number of regions solved. */
+    int size() {
+        int total = 0;
+        for (long[] keys : _keys) {
+            total += keys.length;
+        }
+        return total;
+    }
+
+    /** Write the table to the file named NAME. */
+    void write(String name) {
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(name)))) {
+            out.writeInt(_maxSquares);
+            for (int n = 1; n <= _maxSquares; n += 1) {
+                out.writeInt(_keys[n].length);
+            }
+            for (int n = 1; n <= _maxSquares; n += 1) {
+                for (long key : _keys[n]) {
+                    out.writeLong(key);
+                }
+                out.write(_fills[n]);
+            }
+        } catch (IOException excp) {
+            throw error("could not write tablebase: %s", name);
+        }
+    }
+
+    /** Return the canonical shapes made by adding one square to a shape
+     *  in SHAPES, a king move from one of its squares. */
+    private static long[] grow(long[] shapes) {
+        HashSet<Long> result = new HashSet<>();
+        for (long shape : shapes) {
+            for (long m = shape; m != 0; m &= m - 1) {
+                int i = Long.numberOfTrailingZeros(m);
+                for (int d = 0; d < DROW.length; d += 1) {
+                    int row = i / BOX + DROW[d], col = i % BOX + DCOL[d];
+                    long grown = add(shape, row, col);
+                    if (grown != 0) {
+                        result.add(Tablebase.key(grown, NONE, NONE)
+                                   & ~QUEENS_MASK);
+                    }
+                }
+            }
+        }
+        long[] grown = new long[result.size()];
+        int k = 0;
+        for (long shape : result) {
+            grown[k] = shape;
+            k += 1;
+        }
+        return grown;
+    }
+
+    /** Return SHAPE, which touches the top and left edges of the box,
+     *  with the square at ROW and COL added (moving it all down or right
+     *  if ROW or COL is -1), or 0 if the square is already there or the
+     *  result would not fit in the box. */
+    private static long add(long shape, int row, int col) {
+        if (row < 0) {
+            shape <<= BOX;
+            row = 0;
+        }
+        if (col < 0) {
+            if ((shape & LAST_COLUMN) != 0) {
+                return 0;
+            }
+            shape <<= 1;
+            col = 0;
+        }
+        if (row >= BOX || col >= BOX || (shape & ~SQUARES) != 0
+            || (shape >>> row * BOX + col & 1) != 0) {
+            return 0;
+        }
+        return shape | 1L << row * BOX + col;
+    }
+
+    /** Return the sorted keys of the regions with the shapes in SHAPES
+     *  and one queen, or two. */
+    private static long[] regions(long[] shapes) {
+        HashSet<Long> result = new HashSet<>();
+        for (long shape : shapes) {
+            for (long m0 = shape; m0 != 0; m0 &= m0 - 1) {
+                int q0 = Long.numberOfTrailingZeros(m0);
+                result.add(Tablebase.key(shape, q0, NONE));
+                for (long m1 = m0 & m0 - 1; m1 != 0; m1 &= m1 - 1) {
+                    result.add(Tablebase.key(shape, q0,
+                                             Long.numberOfTrailingZeros(m1)));
+                }
+            }
+        }
+        long[] keys = new long[result.size()];
+        int k = 0;
+        for (long key : result) {
+            keys[k] = key;
+            k += 1;
+        }
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    /** Return the fill of the region with KEY, all of whose successors
+     *  have been solved. */
+    private int solve(long key) {
+        long mask = Tablebase.mask(key);
+        int[] queens = { Tablebase.queen0(key), Tablebase.queen1(key) };
+        long occupied = 0;
+        for (int q : queens) {
+            occupied |= q == NONE ? 0 : 1L << q;
+        }
+        int limit = Long.bitCount(mask & ~occupied);
+        int best = 0;
+        for (int j = 0; j < 2 && queens[j] != NONE; j += 1) {
+            int from = queens[j], other = queens[1 - j];
+            long free = mask & ~occupied;
+            for (int d = 0; d < DROW.length; d += 1) {
+                for (int to = slide(from, d, free); to >= 0;
+                     to = slide(to, d, free)) {
+                    long left = (free | 1L << from) & ~(1L << to);
+                    for (int e = 0; e < DROW.length; e += 1) {
+                        for (int spear = slide(to, e, left); spear >= 0;
+                             spear = slide(spear, e, left)) {
+                            long rest = mask & ~(1L << spear);
+                            best = Math.max(best,
+                                            1 + after(rest, to, other));
+                            if (best == limit) {
+                                return best;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /** Return the total fill of the squares REST, with queens at Q0 and
+     *  Q1 (NONE if absent), all of whose regions have been solved. */
+    private int after(long rest, int q0, int q1) {
+        long region = region(rest, q0);
+        if (q1 == NONE || (region >>> q1 & 1) != 0) {
+            return lookup(region, q0, q1);
+        }
+        return lookup(region, q0, NONE) + lookup(region(rest, q1), q1, NONE);
+    }
+
+    /** Return the fill of the solved region with squares MASK and queens
+     *  at Q0 and Q1. */
+    private int lookup(long mask, int q0, int q1) {
+        int n = Long.bitCount(mask);
+        int i = Arrays.binarySearch(_keys[n], Tablebase.key(mask, q0, q1));
+        if (i < 0) {
+            throw new IllegalStateException("unsolved tablebase region");
+        }
+        return _fills[n][i];
+    }
+
+    /** Return the square after K in direction D if it is among FREE, or
+     *  -1 if not. */
+    private static int slide(int k, int d, long free) {
+        int row = k / BOX + DROW[d], col = k % BOX + DCOL[d];
+        if (row < 0 || row >= BOX || col < 0 || col >= BOX) {
+            return -1;
+        }
+        int next = row * BOX + col;
+        return (free >>> next & 1) != 0 ? next : -1;
+    }
+
+    /** Return the squares of MASK connected to square K by king moves
+     *  within MASK. */
+    private static long region(long mask, int k) {
+        long result = 1L << k, last = 0;
+        while (result != last) {
+            last = result;
+            long left = result & ~FIRST_COLUMN, right = result & ~LAST_COLUMN;
+            result |= result << BOX | result >>> BOX
+                | left >>> 1 | left << BOX - 1 | left >>> BOX + 1
+                | right << 1 | right << BOX + 1 | right >>> BOX - 1;
+            result &= mask;
+        }
+        return result;
+    }
+
+    /** The row and column changes of a step in each of the eight
+     *  directions. */
+    private static final int[]
+        DROW = { -1, -1, 0, 1, 1, 1, 0, -1 },
+        DCOL = { 0, 1, 1, 1, 0, -1, -1, -1 };
+    /** All squares of the box, and its first and last columns. */
+    private static final long SQUARES = (1L << BOX * BOX) - 1,
+        FIRST_COLUMN = 0x40810204081L, LAST_COLUMN = FIRST_COLUMN << BOX - 1;
+    /** The queen fields of a key. */
+    private static final long QUEENS_MASK = ~SQUARES;
+
+    /** Size of the largest regions in the table. */
+    private final int _maxSquares;
+    /** For each region size, the sorted keys of the regions solved. */
+    private final long[][] _keys;
+    /** For each region size, the fills of the regions in _keys. */
+    private final byte[][] _fills;
+
+    /** The task of solving KEYS[LO .. HI-1] into FILLS. */
+    private class Solve extends RecursiveAction {
+
+        /** A task for KEYS[LO .. HI-1], whose fills go in FILLS. */
+        Solve(long[] keys, byte[] fills, int lo, int hi) {
+            _regions = keys;
+            _results = fills;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > GRAIN) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new Solve(_regions, _results, _lo, mid),
+                          new Solve(_regions, _results, mid, _hi));
+                return;
+            }
+            for (int i = _lo; i < _hi; i += 1) {
+                _results[i] = (byte) solve(_regions[i]);
+            }
+        }
+
+        /** The keys of the regions to solve. */
+        private final long[] _regions;
+        /** Where their fills go. */
+        private final byte[] _results;
+        /** Range of indices solved by this task. */
+        private final int _lo, _hi;
+
+        /** Serialization version, expected of any RecursiveAction. */
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** Number of regions below which a Solve task is not split. */
+    private static final int GRAIN = 256;
+}
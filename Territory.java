@@ -0,0 +1,251 @@
+package amazons;
+
+import java.util.Arrays;
+
+import static amazons.Piece.*;
+
+/** A static evaluator that estimates who is winning by territory: which
+ *  side can reach each empty square first.  Distances are measured in
+ *  two ways: in queen moves, which is how far a square really is, and
+ *  in king moves, which better reflects who can hold a square against
+ *  intrusion.  A square both sides reach in the same number of moves
+ *  counts a little for the side to move.  Queen mobility (the squares
+ *  each queen can move to) is added, so that queens that are nearly
+ *  trapped count against their side.
+ *
+ *  Each measure is a breadth-first search over the empty squares from
+ *  all of one side's queens at once, done on bitboards: each step
+ *  finds every square at the next distance together, by shifting the
+ *  last step's squares in all eight directions (repeatedly, along the
+ *  empty squares, for queen moves).  Both sides' searches advance in
+ *  step, so the squares each side reaches first are known as soon as
+ *  they are found, and no distances need be stored.
+ *
+ *  The searches visit only the contested regions (see Regions), which
+ *  the Board keeps up to date as moves are made and taken back.  Every
+ *  square of any other region goes to the side whose queens are in it,
+ *  so that the work shrinks with the part of the board still in play.
+ *  Before any region is sealed, that is the whole board: the distances
+ *  are found afresh for each position, not kept up to date from move
+ *  to move.
+ *  A Tablebase, if given, says exactly how many of those squares the
+ *  side can use.
+ *
+ *  An evaluator keeps its bitboards from call to call, so that evaluate
+ *  allocates nothing, and so may be used by only one thread at a time.
+ *  @author Frederick Fan
+ */
+final class Territory {
+
+    /** An evaluator that uses no tablebase. */
+    Territory() {
+        this(null);
+    }
+
+    /** An evaluator that takes the fills of the settled regions that
+     *  TABLEBASE covers from it (if it is not null). */
+    Territory(Tablebase tablebase) {
+        _tablebase = tablebase;
+    }
+
+    /** Return the value of BOARD, on which the game is not over: positive
+     *  if white is ahead, and negative if black is. */
+    int evaluate(Board board) {
+        prepare(board);
+        int settled = settle(board);
+        int tempo = board.turn() == WHITE ? TEMPO : -TEMPO;
+        int queenTerritory = territory(board, true, tempo),
+            kingTerritory = territory(board, false, tempo);
+        int mobility = 0;
+        int n = board.queens(WHITE, _queens);
+        for (int i = 0; i < n; i += 1) {
+            mobility += board.reachCount(_queens[i], -1);
+        }
+        n = board.queens(BLACK, _queens);
+        for (int i = 0; i < n; i += 1) {
+            mobility -= board.reachCount(_queens[i], -1);
+        }
+        return QUEEN_WEIGHT * queenTerritory + KING_WEIGHT * kingTerritory
+            + (QUEEN_WEIGHT + KING_WEIGHT) * SQUARE * settled
+            + MOBILITY_WEIGHT * mobility;
+    }
+
+    /** Set _empty to the empty squares of the contested regions of
+     *  BOARD, which are all that its searches need visit, and return
+     *  the total fill (see fill) of the regions only white's queens can
+     *  reach, less that of the regions only black's queens can reach.
+     *  Every square of such a region is as near to its queens as it
+     *  can be, and unreachable by the other side. */
+    private int settle(Board board) {
+        int result = 0;
+        Arrays.fill(_empty, 0);
+        for (int r = board.regionCount() - 1; r >= 0; r -= 1) {
+            long[] area = board.regionSquares(r);
+            if (board.isContested(r)) {
+                for (int w = 0; w < _words; w += 1) {
+                    _empty[w] |= area[w];
+                }
+            } else if (board.regionQueens(r, WHITE) > 0) {
+                result += fill(board, area);
+            } else if (board.regionQueens(r, BLACK) > 0) {
+                result -= fill(board, area);
+            }
+        }
+        board.emptyBits(_slide);
+        for (int w = 0; w < _words; w += 1) {
+            _empty[w] &= _slide[w];
+        }
+        return result;
+    }
+
+    /** Return the territory balance on BOARD, measuring distance in queen
+     *  moves if QUEENMOVES and otherwise in king moves: SQUARE for each
+     *  empty square white reaches first, -SQUARE for each that black
+     *  reaches first, and TEMPO for each that both reach at once, among
+     *  the squares in _empty (see settle). */
+    private int territory(Board board, boolean queenMoves, int tempo) {
+        board.pieceBits(WHITE, _whiteFront);
+        board.pieceBits(BLACK, _blackFront);
+        for (int w = 0; w < _words; w += 1) {
+            _whiteReached[w] = _whiteFront[w];
+            _blackReached[w] = _blackFront[w];
+        }
+        int result = 0;
+        boolean more = true;
+        while (more) {
+            step(_whiteFront, _whiteNext, queenMoves);
+            step(_blackFront, _blackNext, queenMoves);
+            more = false;
+            for (int w = 0; w < _words; w += 1) {
+                long white = _whiteNext[w] & ~_whiteReached[w],
+                    black = _blackNext[w] & ~_blackReached[w];
+                result += SQUARE * (Long.bitCount(white & ~_blackReached[w]
+                                                  & ~black)
+                                    - Long.bitCount(black & ~_whiteReached[w]
+                                                    & ~white))
+                    + tempo * Long.bitCount(white & black);
+                _whiteReached[w] |= white;
+                _blackReached[w] |= black;
+                _whiteFront[w] = white;
+                _blackFront[w] = black;
+                more |= (white | black) != 0;
+            }
+        }
+        return result;
+    }
+
+    /** Return the number of moves the queens in AREA, a region of BOARD
+     *  that is not contested, can make there: exactly, if my tablebase
+     *  covers it, and otherwise at most its number of empty squares. */
+    private int fill(Board board, long[] area) {
+        int fill = _tablebase == null ? -1 : _tablebase.fill(board, area);
+        return fill >= 0 ? fill : board.emptySquares(area);
+    }
+
+    /** Set TO to the empty squares one move (a queen move if QUEENMOVES,
+     *  otherwise a king move) from the squares in FROM. */
+    private void step(long[] from, long[] to, boolean queenMoves) {
+        for (int w = 0; w < _words; w += 1) {
+            to[w] = 0;
+        }
+        for (int d = 0; d < _shifts.length; d += 1) {
+            long[] mask = _masks[d], source = from;
+            long any;
+            do {
+                shift(source, _shifts[d], _slide);
+                source = _slide;
+                any = 0;
+                for (int w = 0; w < _words; w += 1) {
+                    _slide[w] &= mask[w] & _empty[w];
+                    to[w] |= _slide[w];
+                    any |= _slide[w];
+                }
+            } while (queenMoves && any != 0);
+        }
+    }
+
+    /** Set TO to the indices in FROM shifted up by S if S > 0, or down by
+     *  -S if S < 0, where |S| < 64.  FROM and TO may be the same. */
+    private static void shift(long[] from, int s, long[] to) {
+        int n = from.length;
+        if (s > 0) {
+            for (int w = n - 1; w > 0; w -= 1) {
+                to[w] = from[w] << s | from[w - 1] >>> (64 - s);
+            }
+            to[0] = from[0] << s;
+        } else {
+            s = -s;
+            for (int w = 0; w < n - 1; w += 1) {
+                to[w] = from[w] >>> s | from[w + 1] << (64 - s);
+            }
+            to[n - 1] = from[n - 1] >>> s;
+        }
+    }
+
+    /** Make sure my bitboards and direction tables are for the size of
+     *  BOARD. */
+    private void prepare(Board board) {
+        int size = board.size();
+        if (size == _size) {
+            return;
+        }
+        _size = size;
+        _words = Bits.words(size * size);
+        _empty = new long[_words];
+        _whiteFront = new long[_words];
+        _blackFront = new long[_words];
+        _whiteNext = new long[_words];
+        _blackNext = new long[_words];
+        _whiteReached = new long[_words];
+        _blackReached = new long[_words];
+        _slide = new long[_words];
+        _queens = new int[size * size];
+        _shifts = new int[DCOL.length];
+        _masks = new long[DCOL.length][_words];
+        for (int d = 0; d < DCOL.length; d += 1) {
+            _shifts[d] = DROW[d] * size + DCOL[d];
+            for (int k = 0; k < size * size; k += 1) {
+                int col = k % size - DCOL[d], row = k / size - DROW[d];
+                if (col >= 0 && col < size && row >= 0 && row < size) {
+                    Bits.set(_masks[d], k);
+                }
+            }
+        }
+    }
+
+    /** The column and row changes of a step in each of the eight
+     *  directions. */
+    private static final int[]
+        DCOL = { 1, -1, 0, 0, 1, -1, 1, -1 },
+        DROW = { 0, 0, 1, -1, 1, 1, -1, -1 };
+    /** Value (see territory) of a square one side reaches first, and of
+     *  one both sides reach at once. */
+    private static final int SQUARE = 4, TEMPO = 1;
+    /** Weights of territory by queen distance and by king distance, and
+     *  of mobility. */
+    private static final int QUEEN_WEIGHT = 3, KING_WEIGHT = 1,
+        MOBILITY_WEIGHT = 1;
+
+    /** Exact fills of small regions, or null if none. */
+    private final Tablebase _tablebase;
+    /** The board size my tables are for, or 0 if none yet. */
+    private int _size;
+    /** Number of longs in my bitboards. */
+    private int _words;
+    /** The empty squares of the board being evaluated. */
+    private long[] _empty;
+    /** The squares each side's search reached at its last step, at its
+     *  next step, and at any step so far. */
+    private long[] _whiteFront, _blackFront, _whiteNext, _blackNext,
+        _whiteReached, _blackReached;
+    /** Work bitboard for step. */
+    private long[] _slide;
+    /** Squares of one side's queens. */
+    private int[] _queens;
+    /** The shift of square indices for a move in each of the eight
+     *  directions. */
+    private int[] _shifts;
+    /** For each direction, the squares at which a move in that direction
+     *  can arrive without wrapping around the board's edge. */
+    private long[][] _masks;
+}
@@ -30,15 +30,15 @@ class TextPlayer extends Player {
             if (line == null) {
                 return "quit";
             } else if (Move.isGrammaticalMove(line)) {
-                Move movef = mv(line);
+                Move movef = mv(board().size(), line);
                 if (movef == null) {
                     _controller.reportError("Invalid move.");
                     continue;
                 }
 
-                if (!board().isLegal(mv(line))
+                if (!board().isLegal(movef)
                         || board().winner() != null) {
-                    if (!board().isLegal(mv(line))) {
+                    if (!board().isLegal(movef)) {
                         _controller.reportError("Invalid move. "
                                 + "Please try again.");
                     }
@@ -0,0 +1,131 @@
+package amazons;
+
+import java.util.Arrays;
+
+/** A fixed-size table of search results, indexed by position hash (see
+ *  Board.hash).  Each result records the depth searched, a score with
+ *  the kind of bound it is, and the best move found, all packed into one
+ *  long.  The table is an array of buckets of two entries: the first
+ *  keeps the deepest result stored in the bucket, and the second
+ *  always takes the newest result that did not replace the first.
+ *
+ *  Entries are read and written without locks, so that several search
+ *  threads can share one table.  Each entry is stored as two longs: the
+ *  data, and the data XORed with the hash.  A reader recomputes the hash
+ *  from the two, so a torn entry (half written by one thread and half
+ *  by another) simply fails to match, as if absent.
+ *  @author Frederick Fan
+ */
+class TranspositionTable {
+
+    /** Bound types: the score is exact, a lower bound on the true score,
+     *  or an upper bound. */
+    static final int EXACT = 0, LOWER = 1, UPPER = 2;
+
+    /** A table occupying about MEGABYTES megabytes (at least one
+     *  bucket). */
+    TranspositionTable(int megabytes) {
+        long buckets = Math.min(((long) megabytes << 20) / BUCKET_BYTES,
+                                MAX_BUCKETS);
+        int n = Integer.highestOneBit((int) Math.max(buckets, 1));
+        _table = new long[n * BUCKET_LONGS];
+        _mask = n - 1;
+    }
+
+    /** Return the packed data stored for the position whose hash is
+     *  HASH, or 0 if there is none.  The fields of a non-zero result are
+     *  available through depth, score, bound, and move. */
+    long probe(long hash) {
+        int i = bucket(hash);
+        for (int j = 0; j < BUCKET_LONGS; j += 2) {
+            long data = _table[i + j + 1];
+            if (data != 0 && (_table[i + j] ^ data) == hash) {
+                return data;
+            }
+        }
+        return 0;
+    }
+
+    /** Record that a search of depth DEPTH of the position whose hash is
+     *  HASH found the packed move MOVE (-1 if none) with score SCORE, a
+     *  bound of type BOUND. */
+    void store(long hash, int depth, int score, int bound, int move) {
+        long data = pack(depth, score, bound, move);
+        int i = bucket(hash);
+        long old = _table[i + 1];
+        if (old == 0 || (_table[i] ^ old) == hash || depth(old) <= depth) {
+            _table[i] = hash ^ data;
+            _table[i + 1] = data;
+        } else {
+            _table[i + 2] = hash ^ data;
+            _table[i + 3] = data;
+        }
+    }
+
+    /** Remove all entries. */
+    void clear() {
+        Arrays.fill(_table, 0);
+    }
+
+    /** Return the number of entries the table can hold. */
+    int capacity() {
+        return _table.length / 2;
+    }
+
+    /** Return the depth field of DATA (as from probe). */
+    static int depth(long data) {
+        return (int) (data >>> DEPTH_SHIFT) & DEPTH_MASK;
+    }
+
+    /** Return the score field of DATA. */
+    static int score(long data) {
+        return (int) data;
+    }
+
+    /** Return the bound field of DATA: EXACT, LOWER, or UPPER. */
+    static int bound(long data) {
+        return (int) (data >>> BOUND_SHIFT) & BOUND_MASK;
+    }
+
+    /** Return the move field of DATA: a packed move (see Move.code), or -1
+     *  if none was stored. */
+    static int move(long data) {
+        return (int) (data >>> MOVE_SHIFT & MOVE_MASK) - 1;
+    }
+
+    /** Return DEPTH, SCORE, BOUND, and MOVE packed into a long, which is
+     *  never 0. */
+    private static long pack(int depth, int score, int bound, int move) {
+        return (score & 0xffffffffL)
+            | (long) (move + 1) << MOVE_SHIFT
+            | (long) bound << BOUND_SHIFT
+            | (long) Math.min(depth, DEPTH_MASK) << DEPTH_SHIFT
+            | VALID;
+    }
+
+    /** Return the index in _table of the bucket for HASH. */
+    private int bucket(long hash) {
+        return ((int) (hash ^ hash >>> 32) & _mask) * BUCKET_LONGS;
+    }
+
+    /** Layout of the packed data: score in the low 32 bits, then the
+     *  move plus one (24 bits), the bound type (2 bits), and the depth
+     *  (5 bits), with the top bit always set so that data is never 0. */
+    private static final int MOVE_SHIFT = 32, BOUND_SHIFT = 56,
+        DEPTH_SHIFT = 58;
+    /** Masks for the move, bound, and depth fields. */
+    private static final int MOVE_MASK = 0xffffff, BOUND_MASK = 3,
+        DEPTH_MASK = 31;
+    /** The bit that marks an entry as in use. */
+    private static final long VALID = 1L << 63;
+
+    /** Longs and bytes in a bucket. */
+    private static final int BUCKET_LONGS = 4, BUCKET_BYTES = 32;
+    /** Largest number of buckets. */
+    private static final int MAX_BUCKETS = 1 << 26;
+
+    /** The buckets: pairs of longs (hash ^ data, data). */
+    private final long[] _table;
+    /** Mask selecting a bucket number from a hash. */
+    private final int _mask;
+}
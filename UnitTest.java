@@ -1,5 +1,12 @@
 package amazons;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
 import org.junit.Test;
 
 import static amazons.Piece.*;
@@ -57,6 +64,618 @@ public class UnitTest {
     }
 
 
+    /** Tests that undo restores the position and turn after makeMove. */
+    @Test
+    public void testMakeUndo() {
+        Board b = new Board();
+        b.makeMove(Square.sq("d1"), Square.sq("d7"), Square.sq("d1"));
+        assertEquals(SPEAR, b.get(Square.sq("d1")));
+        assertEquals(WHITE, b.get(Square.sq("d7")));
+        b.makeMove(Square.sq("a7"), Square.sq("b7"), Square.sq("c7"));
+        assertEquals(SPEAR, b.get(Square.sq("c7")));
+        assertEquals(WHITE, b.turn());
+        b.undo();
+        b.undo();
+        assertEquals(INIT_BOARD_STATE, b.toString());
+        assertEquals(WHITE, b.turn());
+        assertEquals(0, b.numMoves());
+    }
+
+    /** Tests making and taking back the halves of a move separately. */
+    @Test
+    public void testHalfMoves() {
+        Board b = new Board();
+        long start = b.hash();
+        int d1 = Square.sq("d1").index(), d7 = Square.sq("d7").index(),
+            e7 = Square.sq("e7").index();
+        b.makeQueenMove(d1, d7);
+        assertEquals(WHITE, b.turn());
+        assertEquals(EMPTY, b.get(Square.sq("d1")));
+        int[] spears = new int[b.maxReach()];
+        assertEquals(b.reachCount(d7, -1), b.spearThrows(spears));
+        b.throwSpear(e7);
+        assertEquals(BLACK, b.turn());
+        assertEquals(1, b.numMoves());
+        Board whole = new Board();
+        whole.makeMove(Square.sq("d1"), Square.sq("d7"), Square.sq("e7"));
+        assertEquals(whole.hash(), b.hash());
+        b.undoSpear();
+        assertEquals(0, b.numMoves());
+        assertEquals(EMPTY, b.get(Square.sq("e7")));
+        b.throwSpear(d1);
+        b.undo();
+        assertEquals(start, b.hash());
+        b.makeQueenMove(d1, d7);
+        b.undoQueenMove();
+        assertEquals(start, b.hash());
+        assertEquals(INIT_BOARD_STATE, b.toString());
+    }
+
+    /** Tests that move counts agree with the moves generated. */
+    @Test
+    public void testCountMoves() {
+        Board b = new Board();
+        assertEquals(2176, b.countMoves(WHITE));
+        assertEquals(2176, b.countMoves(BLACK));
+        b.makeMove(Square.sq("d1"), Square.sq("d7"), Square.sq("g7"));
+        int[] moves = new int[b.maxMoves(BLACK)];
+        assertEquals(b.legalMoves(BLACK, moves), b.countMoves(BLACK));
+        assertEquals(b.legalMoves(WHITE, moves), b.countMoves(WHITE));
+        assertEquals(b.queenMoves(BLACK, moves), b.queenMobility(BLACK));
+    }
+
+    /** Tests that regions split and merge as spears come and go. */
+    @Test
+    public void testRegions() {
+        Board b = new Board();
+        assertEquals(1, b.regionCount());
+        for (char c = 'a'; c < 'j'; c += 1) {
+            b.put(SPEAR, c, '5');
+        }
+        assertEquals(1, b.regionCount());
+        assertTrue(b.isContested(0));
+        b.makeMove(Square.sq("j4"), Square.sq("i4"), Square.sq("j5"));
+        assertEquals(2, b.regionCount());
+        int south = b.region(Square.sq("d1").index());
+        assertEquals(-1, b.region(Square.sq("j5").index()));
+        assertEquals(4, b.regionQueens(south, WHITE));
+        assertEquals(0, b.regionQueens(south, BLACK));
+        assertFalse(b.isContested(south));
+        assertTrue(b.isSealed(Square.sq("a7").index()));
+        b.undo();
+        assertEquals(1, b.regionCount());
+        assertFalse(b.isSealed(Square.sq("a7").index()));
+    }
+
+    /** Tests the analysis of settled endgames. */
+    @Test
+    public void testEndgame() {
+        Board b = sealedBoard("a1", "d4", "b1", "a2", "b2", "d3");
+        assertTrue(Endgame.isSettled(b));
+        Endgame endgame = new Endgame(1000);
+        assertEquals(2, endgame.margin(b));
+        assertTrue(endgame.isExact());
+        int move = endgame.bestMove(b);
+        assertEquals(0, Move.codeFrom(move));
+        b.makeMove(move);
+        b.setTurn(WHITE);
+        long[] area = b.regionSquares(b.region(Move.codeTo(move))).clone();
+        assertEquals(2, endgame.fill(b, area, WHITE));
+        b.undo();
+        endgame.bestMove(b, 0);
+        assertFalse(endgame.isExact());
+        endgame.bestMove(b);
+        assertTrue(endgame.isExact());
+        assertFalse(Endgame.isSettled(new Board()));
+    }
+
+    /** Tests building a tablebase and using it in evaluation and in the
+     *  endgame, on a region where one empty square cannot be used. */
+    @Test
+    public void testTablebase() throws IOException {
+        TablebaseBuilder builder = new TablebaseBuilder(5);
+        builder.build(new ForkJoinPool(2));
+        File file = File.createTempFile("tablebase", ".bin");
+        file.deleteOnExit();
+        builder.write(file.getPath());
+        Tablebase tablebase = new Tablebase(file.getPath());
+        assertEquals(builder.size(), tablebase.size());
+        Board b = sealedBoard("b2", "d4", "a1", "c1", "d3");
+        long[] area = b.regionSquares(b.region(1 * 4 + 1)).clone();
+        assertEquals(2, b.emptySquares(area));
+        assertEquals(1, tablebase.fill(b, area));
+        Endgame endgame = new Endgame(1000, tablebase);
+        assertEquals(0, endgame.margin(b));
+        assertTrue(endgame.isExact());
+        assertEquals((3 + 1) * 4 + 1, new Territory().evaluate(b));
+        assertEquals(1, new Territory(tablebase).evaluate(b));
+        Endgame limited = new Endgame(1, tablebase);
+        assertEquals(0, limited.margin(b));
+        assertFalse(limited.isExact());
+    }
+
+    /** Return a 4x4 board, white to move, whose squares are all spears
+     *  but for a white queen at WHITEQUEEN, a black queen at BLACKQUEEN,
+     *  and the empty squares EMPTY (each named as by Square.sq, as
+     *  "b2"). */
+    private static Board sealedBoard(String whiteQueen, String blackQueen,
+                                     String... empty) {
+        Board b = new Board(4);
+        for (int k = 0; k < 16; k += 1) {
+            b.put(SPEAR, k % 4, k / 4);
+        }
+        b.put(WHITE, Square.sq(whiteQueen));
+        b.put(BLACK, Square.sq(blackQueen));
+        for (String square : empty) {
+            b.put(EMPTY, Square.sq(square));
+        }
+        b.setTurn(WHITE);
+        return b;
+    }
+
+    /** Tests move-generator counts against known perft values. */
+    @Test
+    public void testPerft() {
+        Board b = new Board();
+        assertEquals(2176, Perft.count(b, 1));
+        assertEquals(4307152, Perft.count(b, 2));
+        Perft perft = new Perft(b, 2);
+        perft.run(new ForkJoinPool(2));
+        assertEquals(4307152, perft.nodes());
+        assertEquals(INIT_BOARD_STATE, b.toString());
+    }
+
+    /** Tests storing and retrieving transposition table entries. */
+    @Test
+    public void testTranspositionTable() {
+        TranspositionTable table = new TranspositionTable(1);
+        long hash = new Board().hash();
+        assertEquals(0, table.probe(hash));
+        table.store(hash, 3, -1234, TranspositionTable.UPPER, -1);
+        long entry = table.probe(hash);
+        assertEquals(3, TranspositionTable.depth(entry));
+        assertEquals(-1234, TranspositionTable.score(entry));
+        assertEquals(TranspositionTable.UPPER, TranspositionTable.bound(entry));
+        assertEquals(-1, TranspositionTable.move(entry));
+        int move = Move.mv("d1-d7(g7)").code();
+        table.store(hash, 5, 42, TranspositionTable.EXACT, move);
+        assertEquals(move, TranspositionTable.move(table.probe(hash)));
+        assertEquals(0, table.probe(hash ^ 1));
+        table.clear();
+        assertEquals(0, table.probe(hash));
+    }
+
+    /** Tests storing and probing evaluations, and the hit counts. */
+    @Test
+    public void testEvalCache() {
+        EvalCache cache = new EvalCache(1);
+        long hash = new Board().hash(), other = hash ^ 1L << 40;
+        assertEquals(0, cache.probe(hash));
+        cache.store(hash, -17);
+        assertEquals(-17, EvalCache.score(cache.probe(hash)));
+        assertEquals(0, cache.probe(other));
+        cache.store(other, 5);
+        assertEquals(0, cache.probe(hash));
+        assertEquals(5, EvalCache.score(cache.probe(other)));
+        assertEquals(5, cache.probes());
+        assertEquals(2, cache.hits());
+        cache.clear();
+        assertEquals(0, cache.probe(other));
+        assertEquals(1, cache.probes());
+    }
+
+    /** Tests building an opening book, writing it, and reading it back
+     *  mapped. */
+    @Test
+    public void testOpeningBook() throws IOException {
+        Board b = new Board(6);
+        BookBuilder builder =
+            new BookBuilder(new AI(null, null, new TranspositionTable(1),
+                                   null), 2, 2, 1);
+        builder.build(b);
+        assertTrue(builder.size() >= 4);
+        File file = File.createTempFile("book", ".bin");
+        file.deleteOnExit();
+        builder.write(file.getPath());
+        OpeningBook book = new OpeningBook(file.getPath());
+        assertEquals(builder.size(), book.size());
+        int move = book.move(b.hash());
+        assertTrue(b.isLegal(Move.mv(6, move)));
+        b.makeMove(move);
+        assertTrue(b.isLegal(Move.mv(6, book.move(b.hash()))));
+        b.makeMove(book.move(b.hash()));
+        assertEquals(-1, book.move(b.hash()));
+    }
+
+    /** Tests that parallel search finds the same value as serial
+     *  search. */
+    @Test
+    public void testParallelSearch() {
+        Board b = new Board();
+        b.makeMove(Move.mv("d1-d7(g7)"));
+        b.makeMove(Move.mv("a7-b6(a7)"));
+        AI serial = new AI(null, null, new TranspositionTable(1), null);
+        int value = serial.acquireSearcher().search(b, 2, 1, -1);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        AI parallel = new AI(null, null, new TranspositionTable(1), pool);
+        Searcher searcher = parallel.acquireSearcher();
+        assertEquals(value, (int) pool.invoke(ForkJoinTask.adapt(
+            () -> searcher.search(b, 2, 1, -1))));
+        assertTrue(b.isLegal(Move.mv(searcher.lastFoundMove())));
+    }
+
+    /** Tests that the killer and history scores left by one search
+     *  change only the order of later searches, not their results. */
+    @Test
+    public void testMoveOrdering() {
+        Board b = new Board();
+        b.makeMove(Move.mv("d1-d7(g7)"));
+        b.makeMove(Move.mv("a7-b6(a7)"));
+        Searcher fresh =
+            new AI(null, null, new TranspositionTable(1), null)
+            .acquireSearcher();
+        int value = fresh.search(b, 2, 1, -1);
+        Searcher trained =
+            new AI(null, null, new TranspositionTable(1), null)
+            .acquireSearcher();
+        trained.search(b, 1, 1, -1);
+        trained.search(b, 2, 1, -1);
+        assertEquals(value, trained.search(b, 2, 1, -1));
+        assertTrue(trained.cutoffs() > 0);
+        assertTrue(trained.firstMoveCutoffs() <= trained.cutoffs());
+        assertTrue(trained.cutoffs() <= trained.nodes());
+    }
+
+    /** Tests that searches with narrow windows find the value when it is
+     *  inside them, and a bound on the correct side when it is not. */
+    @Test
+    public void testSearchWindows() {
+        Board b = new Board();
+        b.makeMove(Move.mv("d1-d7(g7)"));
+        b.makeMove(Move.mv("a7-b6(a7)"));
+        int value = new AI(null, null, new TranspositionTable(1), null)
+            .acquireSearcher().search(b, 2, 1, -1);
+        Searcher searcher =
+            new AI(null, null, new TranspositionTable(1), null)
+            .acquireSearcher();
+        assertEquals(value, searcher.search(b, 2, 1, -1,
+                                            value - 1, value + 1));
+        assertTrue(searcher.search(b, 2, 1, -1,
+                                   value, value + 10) <= value);
+        assertTrue(searcher.search(b, 2, 1, -1,
+                                   value - 10, value) >= value);
+    }
+
+    /** Tests the territory evaluator on the symmetric initial position
+     *  and on one where each side has its own sealed area. */
+    @Test
+    public void testTerritory() {
+        Territory territory = new Territory();
+        Board b = new Board();
+        int value = territory.evaluate(b);
+        assertTrue(value > 0);
+        b.setTurn(BLACK);
+        assertEquals(-value, territory.evaluate(b));
+        b = sealedBoard("a1", "d4", "b1", "a2", "b2", "d3");
+        assertEquals(3 * 8 + 8 + 2, territory.evaluate(b));
+    }
+
+    /** Tests that the territory evaluator, which searches only the
+     *  contested regions and credits the others whole, agrees with
+     *  searches of the whole board by a simple breadth-first search, on
+     *  random positions of several sizes. */
+    @Test
+    public void testTerritoryConfined() {
+        Random random = new Random(11);
+        Territory territory = new Territory();
+        for (int size = 4; size <= 10; size += 2) {
+            int[] steps = new int[size * size * size],
+                spears = new int[8 * size], queens = new int[size * size];
+            for (int i = 0; i < 100; i += 1) {
+                Board b = new Board(size);
+                int plies = random.nextInt(size * size / 2);
+                for (int p = 0; p < plies && b.winner() == null; p += 1) {
+                    int n = b.queenMoves(b.turn(), steps);
+                    int step = steps[random.nextInt(n)];
+                    b.makeQueenMove(Move.codeFrom(step), Move.codeTo(step));
+                    n = b.spearThrows(spears);
+                    b.throwSpear(spears[random.nextInt(n)]);
+                }
+                if (b.winner() != null) {
+                    continue;
+                }
+                int tempo = b.turn() == WHITE ? 1 : -1;
+                int mobility = 0;
+                int n = b.queens(WHITE, queens);
+                for (int j = 0; j < n; j += 1) {
+                    mobility += b.reachCount(queens[j], -1);
+                }
+                n = b.queens(BLACK, queens);
+                for (int j = 0; j < n; j += 1) {
+                    mobility -= b.reachCount(queens[j], -1);
+                }
+                assertEquals(3 * fullTerritory(b, true, tempo)
+                             + fullTerritory(b, false, tempo) + mobility,
+                             territory.evaluate(b));
+            }
+        }
+    }
+
+    /** Return the territory balance on B found from the distances of
+     *  every empty square (see distances), as Territory scores it: 4
+     *  for each square white is nearer, -4 for each black is nearer,
+     *  and TEMPO for each both reach at the same distance. */
+    private static int fullTerritory(Board b, boolean queenMoves,
+                                     int tempo) {
+        int[] white = distances(b, WHITE, queenMoves),
+            black = distances(b, BLACK, queenMoves);
+        int result = 0;
+        for (int k = 0; k < white.length; k += 1) {
+            if (b.get(k) != EMPTY) {
+                continue;
+            }
+            if (white[k] < black[k]) {
+                result += 4;
+            } else if (black[k] < white[k]) {
+                result -= 4;
+            } else if (white[k] < Integer.MAX_VALUE) {
+                result += tempo;
+            }
+        }
+        return result;
+    }
+
+    /** Return the distance of each square of B from SIDE's queens over
+     *  the empty squares, in queen moves if QUEENMOVES and otherwise in
+     *  king moves (Integer.MAX_VALUE if it cannot be reached). */
+    private static int[] distances(Board b, Piece side, boolean queenMoves) {
+        int size = b.size();
+        int[] dist = new int[size * size], queue = new int[size * size];
+        Arrays.fill(dist, Integer.MAX_VALUE);
+        int head = 0, tail = b.queens(side, queue);
+        for (int i = 0; i < tail; i += 1) {
+            dist[queue[i]] = 0;
+        }
+        while (head < tail) {
+            int k = queue[head];
+            head += 1;
+            for (int dc = -1; dc <= 1; dc += 1) {
+                for (int dr = -1; dr <= 1; dr += 1) {
+                    int col = k % size + dc, row = k / size + dr;
+                    while ((dc != 0 || dr != 0) && col >= 0 && col < size
+                           && row >= 0 && row < size
+                           && b.get(row * size + col) == EMPTY) {
+                        int t = row * size + col;
+                        if (dist[t] == Integer.MAX_VALUE) {
+                            dist[t] = dist[k] + 1;
+                            queue[tail] = t;
+                            tail += 1;
+                        }
+                        if (!queenMoves) {
+                            break;
+                        }
+                        col += dc;
+                        row += dr;
+                    }
+                }
+            }
+        }
+        return dist;
+    }
+
+    /** Tests that the Monte Carlo player finds legal moves, keeps its
+     *  tree when its move and then a reply it searched are played, and
+     *  starts afresh on any other position. */
+    @Test
+    public void testMonteCarlo() {
+        Board b = new Board(4);
+        MonteCarlo player = new MonteCarlo(null, null, 1, null);
+        int move = player.findMove(b, System.currentTimeMillis() + 200);
+        assertTrue(player.playouts() > 0);
+        assertEquals(0, player.reusedVisits());
+        assertTrue(b.isLegal(Move.mv(4, move)));
+        b.makeMove(move);
+        int[] replies = new int[b.maxMoves(BLACK)];
+        assertTrue(b.legalMoves(BLACK, replies) > 0);
+        b.makeMove(replies[0]);
+        move = player.findMove(b, System.currentTimeMillis() + 100);
+        assertTrue(player.reusedVisits() > 0);
+        assertTrue(b.isLegal(Move.mv(4, move)));
+        player.findMove(new Board(4), System.currentTimeMillis() + 50);
+        assertEquals(0, player.reusedVisits());
+    }
+
+    /** Tests that a ponder hit returns the move found while pondering,
+     *  the search going on under the deadlines of the move itself. */
+    @Test
+    public void testPonderHit() {
+        Controller control = testController(5, "time 2 20");
+        AI ai = new AI(WHITE, control, new TranspositionTable(1),
+                       new EvalCache(1), null, true);
+        Board b = control.board();
+        b.makeMove(ai.findMove());
+        assertTrue(ai.isPondering());
+        int reply = TranspositionTable.move(ai.table().probe(b.hash()));
+        b.makeMove(Move.mv(5, reply));
+        long start = System.currentTimeMillis();
+        int move = ai.finishPondering(Board.scratchCopy(b), start);
+        assertFalse(ai.isPondering());
+        assertTrue(b.isLegal(Move.mv(5, move)));
+        assertTrue(ai.hardDeadline()
+                   <= start + control.moveTimeLimit() - AI.TIME_MARGIN);
+        ai.stopPondering();
+    }
+
+    /** Tests that a ponder miss stops the pondering, after which a
+     *  normal search finds the move. */
+    @Test
+    public void testPonderMiss() {
+        Controller control = testController(5, "time 2 20");
+        AI ai = new AI(WHITE, control, new TranspositionTable(1),
+                       new EvalCache(1), null, true);
+        Board b = control.board();
+        b.makeMove(ai.findMove());
+        assertTrue(ai.isPondering());
+        int reply = TranspositionTable.move(ai.table().probe(b.hash()));
+        int[] moves = new int[b.maxMoves(BLACK)];
+        assertTrue(b.legalMoves(BLACK, moves) > 1);
+        b.makeMove(Move.mv(5, moves[0] == reply ? moves[1] : moves[0]));
+        assertEquals(-1, ai.finishPondering(Board.scratchCopy(b),
+                                            System.currentTimeMillis()));
+        assertFalse(ai.isPondering());
+        assertEquals(0, ai.hardDeadline());
+        assertTrue(b.isLegal(ai.findMove()));
+        ai.stopPondering();
+        assertFalse(ai.isPondering());
+    }
+
+    /** Tests the sharing out of time among moves: the per-move limit,
+     *  less AI.TIME_MARGIN, caps both deadlines, and the hard deadline
+     *  is at most half the game time left. */
+    @Test
+    public void testTimeShare() {
+        Controller control = testController(10, "time 1 1000");
+        Board b = control.board();
+        assertEquals(500, AI.timeShare(control, b));
+        AI ai = new AI(WHITE, control, new TranspositionTable(1), null);
+        ai.setDeadlines(b, 0);
+        assertEquals(1000 - AI.TIME_MARGIN, ai.softDeadline());
+        assertEquals(1000 - AI.TIME_MARGIN, ai.hardDeadline());
+
+        control.executeCommand("time 30 3");
+        assertEquals(3000 / (b.emptySquares() / 2),
+                     AI.timeShare(control, b));
+        ai.setDeadlines(b, 0);
+        assertEquals(AI.timeShare(control, b), ai.softDeadline());
+        assertTrue(ai.hardDeadline() > ai.softDeadline());
+        assertTrue(ai.hardDeadline() <= control.gameTimeLeft() / 2);
+
+        control.chargeTime(2900);
+        assertEquals(100, control.gameTimeLeft());
+        assertEquals(100 / (b.emptySquares() / 2),
+                     AI.timeShare(control, b));
+    }
+
+    /** Tests that a move found under a short time limit comes back by
+     *  the hard deadline (allowing for the clock being read only every
+     *  few nodes). */
+    @Test
+    public void testTimeLimit() {
+        Controller control = testController(10, "time 1 5");
+        AI ai = new AI(WHITE, control, new TranspositionTable(1), null);
+        Move move = ai.findMove();
+        long end = System.currentTimeMillis();
+        assertTrue(control.board().isLegal(move));
+        assertTrue(end <= ai.hardDeadline() + 100);
+        assertTrue(ai.searchDepth() >= 1);
+    }
+
+    /** Return a Controller, with no players, of a game on a SIZE x SIZE
+     *  board, after the commands COMMANDS. */
+    private static Controller testController(int size, String... commands) {
+        Controller result =
+            new Controller(new NullView(), null, new TextReporter(),
+                           new TextPlayer(), new AI(1, 1, 1, false),
+                           () -> null);
+        result.executeCommand("size " + size);
+        for (String command : commands) {
+            result.executeCommand(command);
+        }
+        return result;
+    }
+
+    /** Tests that the winner is tracked as queens are boxed in. */
+    @Test
+    public void testWinner() {
+        Board b = new Board();
+        assertNull(b.winner());
+        for (String s : new String[] { "c1", "c2", "d2", "e2", "e1",
+                                       "f1", "f2", "g2", "h2", "h1",
+                                       "a3", "b3", "b4", "b5", "a5",
+                                       "j3", "i3", "i4", "i5" }) {
+            b.put(SPEAR, Square.sq(s));
+        }
+        assertNull(b.winner());
+        b.put(SPEAR, Square.sq("j5"));
+        assertEquals(BLACK, b.winner());
+        b.put(EMPTY, Square.sq("j5"));
+        assertNull(b.winner());
+    }
+
+    /** Tests that position hashes follow makeMove and undo, and that
+     *  positions survive encoding and decoding. */
+    @Test
+    public void testHashAndCodec() {
+        Board b = new Board();
+        long initial = b.hash();
+        b.makeMove(Square.sq("d1"), Square.sq("d7"), Square.sq("e7"));
+        b.makeMove(Square.sq("a7"), Square.sq("b7"), Square.sq("c7"));
+        long twoMoves = b.hash();
+        assertNotEquals(initial, twoMoves);
+
+        byte[] code = PositionCodec.encode(b);
+        assertEquals(26, code.length);
+        Board decoded = new Board();
+        PositionCodec.decode(code, 0, decoded);
+        assertEquals(b.toString(), decoded.toString());
+        assertEquals(b.turn(), decoded.turn());
+        assertEquals(twoMoves, decoded.hash());
+
+        b.undo();
+        b.undo();
+        assertEquals(initial, b.hash());
+
+        PositionStore store = new PositionStore(10);
+        assertTrue(store.add(initial));
+        assertTrue(store.add(twoMoves));
+        assertFalse(store.add(decoded.hash()));
+        assertEquals(2, store.size());
+        assertEquals(2, store.count(twoMoves));
+    }
+
+    /** Tests that copies of a board are independent of it, including
+     *  their move histories. */
+    @Test
+    public void testCopy() {
+        Board b = new Board();
+        b.makeMove(Square.sq("d1"), Square.sq("d7"), Square.sq("e7"));
+        Board snapshot = new Board(b);
+        Board scratch = Board.scratchCopy(b);
+        b.undo();
+        b.makeMove(Square.sq("g1"), Square.sq("g7"), Square.sq("h7"));
+        assertEquals(1, snapshot.numMoves());
+        assertEquals(WHITE, snapshot.get(Square.sq("d7")));
+        snapshot.undo();
+        scratch.undo();
+        assertEquals(INIT_BOARD_STATE, snapshot.toString());
+        assertEquals(INIT_BOARD_STATE, scratch.toString());
+        assertEquals(WHITE, b.get(Square.sq("g7")));
+        assertEquals(EMPTY, b.get(Square.sq("d7")));
+    }
+
+    /** Tests move generation on a board of non-standard size against
+     *  isLegal. */
+    @Test
+    public void testOtherSizes() {
+        Board b = new Board(6);
+        assertEquals(6, b.size());
+        b.makeMove(Move.mv(6, "b1-b4(e4)"));
+        b.makeMove(Move.mv(6, "a5-c3(a5)"));
+        int numLegal = 0;
+        for (int from = 0; from < 36; from += 1) {
+            for (int to = 0; to < 36; to += 1) {
+                for (int spear = 0; spear < 36; spear += 1) {
+                    Move mv = Move.mv(6, Move.code(from, to, spear));
+                    if (b.get(mv.from()) == WHITE && b.isLegal(mv)) {
+                        numLegal += 1;
+                    }
+                }
+            }
+        }
+        assertEquals(numLegal, b.legalMoves(WHITE, new int[2000]));
+        assertNull(Move.mv(6, "g1-g2(g3)"));
+    }
+
     /** isUnblockedSquare test */
     @Test
     public void testUnblockedSquare() {